@@ -0,0 +1,89 @@
+package frc.lib.generic;
+
+import edu.wpi.first.wpilibj.Notifier;
+
+import java.util.Arrays;
+
+import static frc.robot.GlobalConstants.*;
+
+/**
+ * Steps roboRIO-side control loops (motion profiles, their feedforward and feedback) at
+ * {@link frc.robot.GlobalConstants#CONTROL_THREAD_FREQUENCY_HERTZ} on its own thread, writing the setpoints straight to the motors.
+ * Without it, a profile only advances when the main loop commands the motor, so its setpoints form a 20ms staircase.
+ *
+ * <p>The main loop only updates the goals of the registered loops. Each loop is responsible for synchronizing its goal
+ * with its step, as steps happen on this thread.
+ *
+ * <p>Every step is given the nominal period as its time step, so profiles advance the same way no matter when the main loop runs.
+ */
+public class ControlThread {
+    /**
+     * A control loop that is stepped on every tick of the thread.
+     */
+    public interface ControlLoop {
+        /**
+         * @param periodSeconds the time that passed since the previous step, which is always {@link #getPeriodSeconds()}
+         */
+        void step(double periodSeconds);
+    }
+
+    private volatile ControlLoop[] loops = new ControlLoop[0];
+
+    private Notifier notifier;
+
+    private static ControlThread INSTANCE = null;
+
+    public static ControlThread getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new ControlThread();
+        }
+        return INSTANCE;
+    }
+
+    private ControlThread() {
+    }
+
+    /**
+     * @return whether registered loops are stepped by this thread. If not, they should be stepped by the main loop instead
+     */
+    public static boolean isEnabled() {
+        return USE_CONTROL_THREAD && CURRENT_MODE == Mode.REAL;
+    }
+
+    /**
+     * @return the time between steps, in seconds
+     */
+    public static double getPeriodSeconds() {
+        return 1.0 / CONTROL_THREAD_FREQUENCY_HERTZ;
+    }
+
+    /**
+     * Starts stepping the registered loops. Call this once, when the robot initializes.
+     * Loops registered afterward are stepped from the next tick.
+     */
+    public void startStepping() {
+        if (!isEnabled() || notifier != null) return;
+
+        notifier = new Notifier(this::periodic);
+        notifier.setName("ControlThread");
+        notifier.startPeriodic(getPeriodSeconds());
+    }
+
+    /**
+     * Registers a loop to be stepped on every tick.
+     * Registration is expected to happen while the robot initializes, so it only synchronizes with other registrations.
+     */
+    public synchronized void register(ControlLoop loop) {
+        final ControlLoop[] newLoops = Arrays.copyOf(loops, loops.length + 1);
+        newLoops[loops.length] = loop;
+
+        loops = newLoops;
+    }
+
+    private void periodic() {
+        final double periodSeconds = getPeriodSeconds();
+
+        for (ControlLoop loop : loops)
+            loop.step(periodSeconds);
+    }
+}
@@ -0,0 +1,89 @@
+package frc.lib.generic;
+
+/**
+ * Chooses the {@link OdometryThread}'s sampling frequency from the load on the roboRIO and how fast the robot moves.
+ * <p>
+ * The frequency drops whenever the roboRIO is saturated - the main loop keeps overrunning, or the sampler itself takes
+ * too much of its period. It rises towards the maximum only while the robot moves fast and there is headroom left,
+ * and otherwise settles back to the nominal frequency.
+ * To avoid constantly reconfiguring the devices, the frequency changes at most once per {@link #LOOPS_BETWEEN_CHANGES} loops.
+ */
+public class OdometryRateGovernor {
+    private static final int LOOPS_BETWEEN_CHANGES = 50;
+    private static final double FREQUENCY_STEP_HERTZ = 25;
+
+    /** Smoothing factor of the moving averages, per loop */
+    private static final double SMOOTHING = 0.05;
+
+    private static final double
+            SATURATED_OVERRUN_RATE = 0.1,
+            SATURATED_SAMPLER_LOAD = 0.25,
+            HEADROOM_OVERRUN_RATE = 0.02,
+            HEADROOM_SAMPLER_LOAD = 0.1,
+            FAST_SPEED_RATIO = 0.5;
+
+    private final double minimumFrequency, nominalFrequency, maximumFrequency;
+
+    private double overrunRate = 0;
+    private double samplerLoad = 0;
+    private int loopsSinceLastChange = 0;
+
+    /**
+     * @param minimumFrequency the lowest frequency to sample at, when the roboRIO is saturated
+     * @param nominalFrequency the frequency to sample at normally
+     * @param maximumFrequency the highest frequency to sample at, when moving fast with headroom left
+     */
+    public OdometryRateGovernor(double minimumFrequency, double nominalFrequency, double maximumFrequency) {
+        this.minimumFrequency = minimumFrequency;
+        this.nominalFrequency = nominalFrequency;
+        this.maximumFrequency = maximumFrequency;
+    }
+
+    /**
+     * Call this once per main loop.
+     *
+     * @param currentFrequency  the frequency the sampler currently runs at
+     * @param tickCostSeconds   the average time a single sampler tick takes
+     * @param loopOverran       whether the last main loop took longer than its period
+     * @param speedRatio        how fast the robot moves, from 0 (still) to 1 (maximum speed)
+     * @return the frequency the sampler should run at
+     */
+    public double calculate(double currentFrequency, double tickCostSeconds, boolean loopOverran, double speedRatio) {
+        overrunRate += SMOOTHING * ((loopOverran ? 1 : 0) - overrunRate);
+        samplerLoad += SMOOTHING * (tickCostSeconds * currentFrequency - samplerLoad);
+
+        if (++loopsSinceLastChange < LOOPS_BETWEEN_CHANGES) return currentFrequency;
+
+        final double targetFrequency = getTargetFrequency(currentFrequency, speedRatio);
+
+        if (targetFrequency != currentFrequency) loopsSinceLastChange = 0;
+
+        return targetFrequency;
+    }
+
+    public double getOverrunRate() {
+        return overrunRate;
+    }
+
+    public double getSamplerLoad() {
+        return samplerLoad;
+    }
+
+    private double getTargetFrequency(double currentFrequency, double speedRatio) {
+        if (overrunRate > SATURATED_OVERRUN_RATE || samplerLoad > SATURATED_SAMPLER_LOAD)
+            return Math.max(minimumFrequency, currentFrequency - FREQUENCY_STEP_HERTZ);
+
+        final boolean hasHeadroom = overrunRate < HEADROOM_OVERRUN_RATE && samplerLoad < HEADROOM_SAMPLER_LOAD;
+
+        if (hasHeadroom && speedRatio > FAST_SPEED_RATIO)
+            return Math.min(maximumFrequency, currentFrequency + FREQUENCY_STEP_HERTZ);
+
+        if (hasHeadroom && currentFrequency < nominalFrequency)
+            return Math.min(nominalFrequency, currentFrequency + FREQUENCY_STEP_HERTZ);
+
+        if (speedRatio <= FAST_SPEED_RATIO && currentFrequency > nominalFrequency)
+            return Math.max(nominalFrequency, currentFrequency - FREQUENCY_STEP_HERTZ);
+
+        return currentFrequency;
+    }
+}
@@ -13,30 +13,101 @@
 
 package frc.lib.generic;
 
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusSignal;
 import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.Threads;
 import edu.wpi.first.wpilibj.Timer;
+import frc.lib.generic.hardware.PhoenixSignalRegistry;
 import org.littletonrobotics.junction.AutoLog;
 import org.littletonrobotics.junction.Logger;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Arrays;
 import java.util.function.DoubleSupplier;
 
 import static frc.robot.GlobalConstants.*;
 
 /**
  * Provides an interface for asynchronously reading high-frequency measurements to a set of queues.
+ * Samples are stored in primitive {@link SignalQueue}s, so sampling and draining them doesn't allocate.
  *
- * <p>This version is intended for devices like the SparkMax that require polling rather than a
- * blocking thread. A Notifier thread is used to gather samples with consistent timing.
+ * <p>Phoenix 6 signals are refreshed by this thread on every tick, never by the main loop.
+ * A signal registered with its slope (e.g. a position with its velocity) is latency compensated to the moment it's sampled,
+ * with {@link BaseStatusSignal#getLatencyCompensatedValue}. The CAN timestamp of each of its samples can be recorded as well.
+ *
+ * <p>Two samplers are available, chosen when {@link #startSampling()} is called:
+ * <ul>
+ *   <li>If any Phoenix 6 {@link StatusSignal} was registered and {@link frc.robot.GlobalConstants#USE_PHOENIX_SYNCHRONOUS_ODOMETRY} is set,
+ *   this thread blocks on {@link BaseStatusSignal#waitForAll}
+ *   until their CAN frames arrive, and uses the device-reported latency to timestamp each frame.
+ *   This gives hardware-timed samples at {@link frc.robot.GlobalConstants#PHOENIX_ODOMETRY_FREQUENCY_HERTZ} without polling.
+ *   A wait can't span buses, so only the bus of the first registered signal is waited for.
+ *   The signals of any other bus are refreshed without blocking right after each wait, and sampled in the same frame.
+ *   <li>Otherwise, a Notifier polls the registered {@link DoubleSupplier}s and refreshes the Phoenix signals at a fixed rate,
+ *   once per bus. This is intended for devices like the SparkMax that require polling rather than a blocking thread.
+ * </ul>
+ * Polled signals are sampled on every tick of either sampler. Their value is whatever their device reported last,
+ * and nothing tells this thread how old it is. When every Phoenix signal is latency compensated the frame is stamped
+ * with the time it's sampled, so a polled signal (e.g. the yaw of a Phoenix 5 Pigeon) lags that stamp by up to its own status period,
+ * plus its CAN transit. Devices polled here should send their status at least as fast as this thread samples.
+ *
+ * <p>A signal that fails to update (e.g. its device is unplugged) keeps its previous value in the frame,
+ * and is counted and logged, so a single faulty device never freezes the rest of the odometry.
+ * Only a tick in which no Phoenix signal updated at all is dropped.
+ *
+ * <p>If {@link frc.robot.GlobalConstants#USE_ADAPTIVE_ODOMETRY_FREQUENCY} is set, the sampling frequency is adjusted
+ * every loop by an {@link OdometryRateGovernor}, and logged as an input so replays see the same rate.
+ *
+ * <p>The sampling thread and the main loop never share a lock. Every tick writes one sample to each signal's queue
+ * and only then publishes the tick's timestamp, so a published timestamp means its whole frame is complete.
+ * The main loop calls {@link #latchFrames()} before reading any device, which limits every queue to the frames
+ * published so far - keeping the timestamps and every signal's samples index-aligned,
+ * no matter how long the main loop takes or how many ticks happen meanwhile.
  */
 public class OdometryThread extends Thread {
-    private final List<DoubleSupplier> signals = new ArrayList<>();
-    private final List<Queue<Double>> queues = new ArrayList<>();
+    /**
+     * The maximum amount of frames that can wait for the main loop. Further frames are dropped and counted.
+     */
+    public static final int QUEUE_CAPACITY = 128;
+
+    private volatile DoubleSupplier[] signals = new DoubleSupplier[0];
+    private volatile SignalQueue[] queues = new SignalQueue[0];
+
+    /** Every Phoenix signal this thread refreshes, including slopes. */
+    private volatile BaseStatusSignal[] phoenixSignals = new BaseStatusSignal[0];
+    /** The same signals, grouped by bus so the polling sampler can refresh each bus on its own. */
+    private final PhoenixSignalRegistry phoenixSignalsByBus = new PhoenixSignalRegistry();
+    /** The bus of the first registered Phoenix signal. Its signals are the ones waited for. */
+    private String phoenixBus = null;
+    /** The Phoenix signals on {@link #phoenixBus}, which the synchronous sampler waits for. */
+    private volatile BaseStatusSignal[] waitedPhoenixSignals = new BaseStatusSignal[0];
+    /** The Phoenix signals on every other bus, which the synchronous sampler refreshes right after each wait. */
+    private final PhoenixSignalRegistry otherBusPhoenixSignals = new PhoenixSignalRegistry();
+    private volatile PhoenixSampledSignal[] phoenixSampledSignals = new PhoenixSampledSignal[0];
+
+    private final SignalQueue timestamps = new SignalQueue(QUEUE_CAPACITY);
 
-    private final Queue<Double> timestamps = new ArrayBlockingQueue<>(100);
+    private static final double TICK_COST_SMOOTHING = 0.05;
+    private static final double LOOP_OVERRUN_TOLERANCE = 1.1;
+
+    private Notifier notifier;
+    private OdometryRateGovernor governor;
+    private DoubleSupplier speedRatioSupplier = () -> 0;
+
+    private volatile double samplingFrequency = ODOMETRY_FREQUENCY_HERTZ;
+    /** Only written by the sampling thread. */
+    private volatile double averageTickCostSeconds = 0;
+    /** Only touched by the sampling thread. */
+    private double appliedPhoenixFrequency = PHOENIX_ODOMETRY_FREQUENCY_HERTZ;
+    private double lastLoopTimestamp = 0;
+
+    /** Only written by the sampling thread. */
+    private volatile long droppedFrames = 0;
+    /** Only written by the sampling thread. */
+    private volatile long failedRefreshes = 0;
+    /** Only written by the sampling thread. */
+    private volatile String latestFailedSignal = "";
+    private long droppedFramesSinceLastLoop = 0;
 
     private static OdometryThread INSTANCE = null;
 
@@ -50,57 +121,338 @@ public class OdometryThread extends Thread {
     }
 
     private OdometryThread() {
-        if (CURRENT_MODE == Mode.REPLAY) return;
+        setName("OdometryThread");
+        setDaemon(true);
+    }
+
+    /**
+     * Starts sampling the registered signals. Call this once, after every device has been created.
+     * The sampler is chosen by whether any Phoenix signal was registered by then.
+     */
+    public void startSampling() {
+        if (CURRENT_MODE != Mode.REAL) return;
 
-        Notifier notifier = new Notifier(this::periodic);
-        notifier.setName("OdometryThread");
         Timer.delay(1);
-        notifier.startPeriodic(1.0 / ODOMETRY_FREQUENCY_HERTZ);
-    }
 
-    public Queue<Double> registerSignal(DoubleSupplier signal) {
-        Queue<Double> queue = new ArrayBlockingQueue<>(100);
-        FASTER_THREAD_LOCK.lock();
+        final boolean shouldWaitForPhoenix = USE_PHOENIX_SYNCHRONOUS_ODOMETRY && phoenixSignals.length > 0;
+        final double nominalFrequency = shouldWaitForPhoenix ? PHOENIX_ODOMETRY_FREQUENCY_HERTZ : ODOMETRY_FREQUENCY_HERTZ;
+
+        samplingFrequency = nominalFrequency;
+        governor = new OdometryRateGovernor(MINIMUM_ODOMETRY_FREQUENCY_HERTZ, nominalFrequency, MAXIMUM_ODOMETRY_FREQUENCY_HERTZ);
 
-        try {
-            signals.add(signal);
-            queues.add(queue);
-        } finally {
-            FASTER_THREAD_LOCK.unlock();
+        if (shouldWaitForPhoenix) {
+            start();
+            return;
         }
 
+        notifier = new Notifier(this::periodic);
+        notifier.setName("OdometryThread");
+        notifier.startPeriodic(1.0 / nominalFrequency);
+    }
+
+    /**
+     * Sets how fast the robot currently moves, which lets the sampling frequency rise when the robot moves fast.
+     *
+     * @param speedRatioSupplier the robot's speed, from 0 (still) to 1 (maximum speed)
+     */
+    public void setSpeedRatioSupplier(DoubleSupplier speedRatioSupplier) {
+        this.speedRatioSupplier = speedRatioSupplier;
+    }
+
+    /**
+     * Registers a signal to be polled on every tick. Registration is expected to happen while the robot initializes,
+     * so it only synchronizes with other registrations - a tick in progress keeps sampling the previous set of signals.
+     */
+    public synchronized SignalQueue registerSignal(DoubleSupplier signal) {
+        final SignalQueue queue = new SignalQueue(QUEUE_CAPACITY);
+
+        queues = append(queues, queue);
+        signals = append(signals, signal);
+
         return queue;
     }
 
+    /**
+     * Registers a Phoenix 6 signal that the sampler will refresh on every tick.
+     * The signal is refreshed by the sampling thread only, so pass a dedicated clone rather than one used elsewhere.
+     *
+     * @param bus        the name of the CAN bus the signal's device is on
+     * @param deviceName the name of the signal's device, which is logged if the signal fails to update
+     */
+    public synchronized SignalQueue registerSignal(StatusSignal<Double> signal, String bus, String deviceName) {
+        return registerPhoenixSignal(signal, null, bus, deviceName, false).values();
+    }
+
+    /**
+     * Registers a Phoenix 6 signal that the sampler will refresh on every tick, and latency compensate with its slope.
+     * Both signals are refreshed by the sampling thread only, so pass dedicated clones rather than ones used elsewhere.
+     *
+     * @param signal     the signal to sample, e.g. a position
+     * @param slope      the derivative of the signal, e.g. a velocity
+     * @param bus        the name of the CAN bus the signal's device is on
+     * @param deviceName the name of the signal's device, which is logged if the signal fails to update
+     * @return the queue of the compensated samples
+     */
+    public synchronized SignalQueue registerLatencyCompensatedSignal(StatusSignal<Double> signal, StatusSignal<Double> slope, String bus, String deviceName) {
+        return registerPhoenixSignal(signal, slope, bus, deviceName, false).values();
+    }
+
+    /**
+     * Like {@link #registerLatencyCompensatedSignal(StatusSignal, StatusSignal, String, String)},
+     * but the CAN timestamp of every sample is recorded as well.
+     *
+     * @return the queue of the compensated samples, and the queue of the CAN timestamps they were received at, in FPGA seconds
+     */
+    public synchronized PhoenixSignalQueues registerTimestampedSignal(StatusSignal<Double> signal, StatusSignal<Double> slope, String bus, String deviceName) {
+        return registerPhoenixSignal(signal, slope, bus, deviceName, true);
+    }
+
+    private PhoenixSignalQueues registerPhoenixSignal(StatusSignal<Double> signal, StatusSignal<Double> slope, String bus,
+                                                      String deviceName, boolean shouldRecordCanTimestamps) {
+        final PhoenixSignalQueues signalQueues = new PhoenixSignalQueues(new SignalQueue(QUEUE_CAPACITY),
+                shouldRecordCanTimestamps ? new SignalQueue(QUEUE_CAPACITY) : null);
+
+        if (phoenixBus == null) phoenixBus = bus;
+
+        addPhoenixSignal(signal, bus);
+        if (slope != null) addPhoenixSignal(slope, bus);
+
+        phoenixSampledSignals = append(phoenixSampledSignals,
+                new PhoenixSampledSignal(signal, slope, signalQueues, deviceName + "/" + signal.getName()));
+
+        return signalQueues;
+    }
+
+    private void addPhoenixSignal(BaseStatusSignal signal, String bus) {
+        phoenixSignals = append(phoenixSignals, signal);
+        phoenixSignalsByBus.add(bus, signal);
+
+        if (phoenixBus.equals(bus)) waitedPhoenixSignals = append(waitedPhoenixSignals, signal);
+        else otherBusPhoenixSignals.add(bus, signal);
+    }
+
+    /**
+     * Limits every queue to the frames that were fully published up to now.
+     * Call this once per loop, before any device drains its queues.
+     */
+    public void latchFrames() {
+        final int publishedFrames = timestamps.size();
+
+        for (SignalQueue queue : queues)
+            queue.limitNextDrain(publishedFrames);
+
+        for (PhoenixSampledSignal sampledSignal : phoenixSampledSignals) {
+            sampledSignal.queues().values().limitNextDrain(publishedFrames);
+
+            if (sampledSignal.queues().canTimestamps() != null)
+                sampledSignal.queues().canTimestamps().limitNextDrain(publishedFrames);
+        }
+
+        timestamps.limitNextDrain(publishedFrames);
+    }
+
+    @Override
+    public void run() {
+        Threads.setCurrentThreadPriority(true, 1);
+
+        while (true) {
+            final PhoenixSampledSignal[] currentSampledSignals = phoenixSampledSignals;
+            final double currentFrequency = samplingFrequency;
+
+            if (currentFrequency != appliedPhoenixFrequency) {
+                phoenixSignalsByBus.setUpdateFrequency(currentFrequency);
+                appliedPhoenixFrequency = currentFrequency;
+            }
+
+            BaseStatusSignal.waitForAll(2.0 / currentFrequency, waitedPhoenixSignals);
+            if (!otherBusPhoenixSignals.isEmpty()) otherBusPhoenixSignals.refresh();
+
+            // Some errors return immediately, so the thread waits for a period before trying again rather than spinning
+            if (!checkUpdatedSignals(currentSampledSignals)) {
+                Timer.delay(1.0 / currentFrequency);
+                continue;
+            }
+
+            final long tickStartNanos = System.nanoTime();
+            final double currentTimestamp = Logger.getRealTimestamp() / 1.0e6;
+
+            // Compensated signals are brought to the current time. The frame is timestamped at the average reception time of the rest.
+            // A signal that failed to update is left out, as its reception time is as old as its stale value.
+            double totalLatency = 0;
+            int uncompensatedSignals = 0;
+
+            for (PhoenixSampledSignal sampledSignal : currentSampledSignals) {
+                if (sampledSignal.slope() != null || !sampledSignal.signal().getStatus().isOK()) continue;
+
+                totalLatency += sampledSignal.signal().getTimestamp().getLatency();
+                uncompensatedSignals++;
+            }
+
+            final double frameTimestamp = uncompensatedSignals == 0 ? currentTimestamp : currentTimestamp - totalLatency / uncompensatedSignals;
+
+            sampleFrame(frameTimestamp, currentTimestamp, currentSampledSignals);
+            recordTickCost(System.nanoTime() - tickStartNanos);
+        }
+    }
+
     private void periodic() {
-        FASTER_THREAD_LOCK.lock();
+        final long tickStartNanos = System.nanoTime();
+
+        if (!phoenixSignalsByBus.isEmpty()) phoenixSignalsByBus.refresh();
+        if (!checkUpdatedSignals(phoenixSampledSignals)) return;
+
+        final double currentTimestamp = Logger.getRealTimestamp() / 1.0e6;
+
+        sampleFrame(currentTimestamp, currentTimestamp, phoenixSampledSignals);
+        recordTickCost(System.nanoTime() - tickStartNanos);
+    }
 
-        timestamps.offer(Logger.getRealTimestamp() / 1.0e6);
+    /**
+     * Counts and marks the signals that failed to update on this tick. They keep their previous value in the frame.
+     *
+     * @return whether the frame should be sampled - false only if there are Phoenix signals, and none of them updated
+     */
+    private boolean checkUpdatedSignals(PhoenixSampledSignal[] currentSampledSignals) {
+        int updatedSignals = 0;
 
-        try {
-            for (int i = 0; i < signals.size(); i++) {
-                queues.get(i).offer(signals.get(i).getAsDouble());
+        for (PhoenixSampledSignal sampledSignal : currentSampledSignals) {
+            if (sampledSignal.signal().getStatus().isOK() && (sampledSignal.slope() == null || sampledSignal.slope().getStatus().isOK())) {
+                updatedSignals++;
+                continue;
             }
-        } finally {
-            FASTER_THREAD_LOCK.unlock();
+
+            latestFailedSignal = sampledSignal.name();
         }
+
+        if (updatedSignals == currentSampledSignals.length) return true;
+
+        failedRefreshes++;
+
+        if (updatedSignals > 0) return true;
+
+        droppedFrames++;
+        return false;
+    }
+
+    private void recordTickCost(long tickCostNanos) {
+        averageTickCostSeconds += TICK_COST_SMOOTHING * (tickCostNanos / 1.0e9 - averageTickCostSeconds);
+    }
+
+    private void sampleFrame(double timestamp, double currentTimestamp, PhoenixSampledSignal[] currentSampledSignals) {
+        if (timestamps.remainingCapacity() == 0) {
+            droppedFrames++;
+            return;
+        }
+
+        final DoubleSupplier[] currentSignals = signals;
+        final SignalQueue[] currentQueues = queues;
+
+        for (int i = 0; i < currentSignals.length; i++) {
+            currentQueues[i].offer(currentSignals[i].getAsDouble());
+        }
+
+        for (PhoenixSampledSignal sampledSignal : currentSampledSignals) {
+            final StatusSignal<Double> signal = sampledSignal.signal();
+            final double value = sampledSignal.slope() == null
+                    ? signal.getValueAsDouble()
+                    : BaseStatusSignal.getLatencyCompensatedValue(signal, sampledSignal.slope());
+
+            sampledSignal.queues().values().offer(value);
+
+            if (sampledSignal.queues().canTimestamps() != null)
+                sampledSignal.queues().canTimestamps().offer(currentTimestamp - signal.getTimestamp().getLatency());
+        }
+
+        timestamps.offer(timestamp);
     }
 
     public void updateLatestTimestamps() {
-        if (CURRENT_MODE != Mode.REPLAY) {
-            threadInputs.timestamps = timestamps.stream().mapToDouble(Double::doubleValue).toArray();
-            timestamps.clear();
+        final long previousDroppedFrames = threadInputs.droppedFrames;
+
+        if (CURRENT_MODE == Mode.REAL) {
+            threadInputs.timestamps = timestamps.drain();
+            threadInputs.droppedFrames = droppedFrames;
+            threadInputs.failedRefreshes = failedRefreshes;
+            threadInputs.latestFailedSignal = latestFailedSignal;
+
+            if (USE_ADAPTIVE_ODOMETRY_FREQUENCY && governor != null) updateSamplingFrequency();
+
+            threadInputs.samplingFrequencyHertz = samplingFrequency;
+        } else if (CURRENT_MODE == Mode.SIMULATION) {
+            //Simulated devices produce a single sample per loop, so the frame is a single timestamp as well
+            threadInputs.timestamps = new double[]{Logger.getTimestamp() / 1.0e6};
         }
 
         Logger.processInputs("OdometryThread", threadInputs);
+
+        droppedFramesSinceLastLoop = threadInputs.droppedFrames - previousDroppedFrames;
+    }
+
+    private void updateSamplingFrequency() {
+        final double currentTimestamp = Logger.getRealTimestamp() / 1.0e6;
+        final boolean loopOverran = lastLoopTimestamp != 0
+                && currentTimestamp - lastLoopTimestamp > ROBOT_PERIODIC_LOOP_TIME * LOOP_OVERRUN_TOLERANCE;
+
+        lastLoopTimestamp = currentTimestamp;
+
+        final double newFrequency = governor.calculate(samplingFrequency, averageTickCostSeconds, loopOverran, speedRatioSupplier.getAsDouble());
+
+        Logger.recordOutput("OdometryThread/TickCostMilliseconds", averageTickCostSeconds * 1000);
+        Logger.recordOutput("OdometryThread/LoopOverrunRate", governor.getOverrunRate());
+
+        if (newFrequency == samplingFrequency) return;
+
+        samplingFrequency = newFrequency;
+
+        // The synchronous sampler applies the new frequency to its signals itself, between waits
+        if (notifier != null) {
+            notifier.startPeriodic(1.0 / newFrequency);
+            phoenixSignalsByBus.setUpdateFrequency(newFrequency);
+        }
     }
 
     public double[] getLatestTimestamps() {
         return threadInputs.timestamps;
     }
 
+    /**
+     * @return the amount of frames the sampling thread had to drop since the previous loop,
+     * because the queues were full or because no Phoenix signal updated
+     */
+    public long getDroppedFramesSinceLastLoop() {
+        return droppedFramesSinceLastLoop;
+    }
+
+    /**
+     * @param values        the samples of the signal
+     * @param canTimestamps the time each sample was received over CAN, in FPGA seconds, or null if they aren't recorded
+     */
+    public record PhoenixSignalQueues(SignalQueue values, SignalQueue canTimestamps) { }
+
+    /**
+     * @param slope the derivative used to latency compensate the signal, or null if it isn't compensated
+     * @param name  the name of the signal's device and of the signal itself, which is logged if it fails to update
+     */
+    private record PhoenixSampledSignal(StatusSignal<Double> signal, StatusSignal<Double> slope, PhoenixSignalQueues queues, String name) { }
+
     @AutoLog
     public static class ThreadInputs {
-        public double[] timestamps;
+        public double[] timestamps = new double[0];
+        public long droppedFrames = 0;
+        /**
+         * The amount of ticks in which at least one Phoenix signal failed to update.
+         * The frame is still sampled with that signal's previous value, unless no signal updated at all.
+         */
+        public long failedRefreshes = 0;
+        /** The device and name of the last signal that failed to update, or empty if none ever did. */
+        public String latestFailedSignal = "";
+        public double samplingFrequencyHertz = 0;
+    }
+
+    private static <T> T[] append(T[] array, T element) {
+        final T[] newArray = Arrays.copyOf(array, array.length + 1);
+        newArray[array.length] = element;
+
+        return newArray;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,114 @@
+package frc.lib.generic;
+
+/**
+ * A fixed-capacity ring buffer of primitive doubles, made for handing samples from exactly one producer thread
+ * (e.g. the {@link OdometryThread}) to exactly one consumer thread (the main robot loop).
+ *
+ * <p>Unlike an {@code ArrayBlockingQueue<Double>}, offering and draining never boxes or allocates,
+ * so neither the sampling thread nor the main loop generate garbage in steady state.
+ */
+public class SignalQueue {
+    private final double[] buffer;
+    private final int mask;
+
+    /** Index of the next sample to read. Only written by the consumer. */
+    private volatile long head = 0;
+    /** Index of the next sample to write. Only written by the producer. */
+    private volatile long tail = 0;
+
+    /** Maximum amount of samples the next drain may take. Only touched by the consumer. */
+    private int drainLimit = Integer.MAX_VALUE;
+
+    /**
+     * @param capacity the minimum amount of samples the queue can hold, rounded up to the next power of two
+     */
+    public SignalQueue(int capacity) {
+        final int roundedCapacity = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+
+        buffer = new double[roundedCapacity];
+        mask = roundedCapacity - 1;
+    }
+
+    /**
+     * Adds a sample to the queue. Should only be called from the producer thread.
+     *
+     * @param sample the sample to add
+     * @return false if the queue is full and the sample was dropped
+     */
+    public boolean offer(double sample) {
+        final long currentTail = tail;
+
+        if (currentTail - head >= buffer.length) return false;
+
+        buffer[(int) currentTail & mask] = sample;
+        tail = currentTail + 1;
+
+        return true;
+    }
+
+    /**
+     * Limits the amount of samples the next drain will take, leaving the rest for a later drain.
+     * This lets several queues that are filled together be drained up to the same point.
+     * Should only be called from the consumer thread.
+     *
+     * @param maxSamples the maximum amount of samples the next drain may take
+     */
+    public void limitNextDrain(int maxSamples) {
+        drainLimit = maxSamples;
+    }
+
+    /**
+     * Moves the oldest pending samples into the given array, up to its length.
+     * Should only be called from the consumer thread.
+     *
+     * @param destination the preallocated array to fill, starting at index 0
+     * @return the amount of samples written into the array
+     */
+    public int drainTo(double[] destination) {
+        final long currentHead = head;
+        final int available = Math.min(Math.min((int) (tail - currentHead), drainLimit), destination.length);
+
+        for (int i = 0; i < available; i++)
+            destination[i] = buffer[(int) (currentHead + i) & mask];
+
+        head = currentHead + available;
+        drainLimit = Integer.MAX_VALUE;
+
+        return available;
+    }
+
+    /**
+     * Drains every pending sample (up to the {@link #limitNextDrain(int) drain limit}) into a new array of exactly that length.
+     * The array is never reused, so it's safe to log - a logged array must not change after it was handed to the log.
+     *
+     * @return a new array holding every pending sample
+     */
+    public double[] drain() {
+        final double[] destination = new double[Math.min(size(), drainLimit)];
+
+        drainTo(destination);
+
+        return destination;
+    }
+
+    /**
+     * @return the amount of samples waiting to be drained
+     */
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return the amount of samples that can still be offered before the queue is full
+     */
+    public int remainingCapacity() {
+        return buffer.length - size();
+    }
+
+    /**
+     * Discards every pending sample. Should only be called from the consumer thread.
+     */
+    public void clear() {
+        head = tail;
+    }
+}
@@ -4,4 +4,9 @@ import org.littletonrobotics.junction.inputs.LoggableInputs;
 
 public interface ChoosableLoggedInputs extends LoggableInputs {
     void setSignalsToLog(boolean[] signalsToLog);
+
+    /**
+     * @return The filter deciding, per signal and match phase, which of the chosen signals are written this loop
+     */
+    SignalLogFilter getLogFilter();
 }
@@ -6,7 +6,41 @@ public interface LoggableHardware extends AutoCloseable {
     /**
      * Call this method periodically
      */
-    void periodic();
+    default void periodic() {
+        refresh();
+        log();
+    }
+
+    /**
+     * Read the latest data from the device into its inputs, without logging them.
+     * <p>
+     * This may be called from a worker thread, but never concurrently with the main loop or with {@link #log()}.
+     */
+    void refresh();
+
+    /**
+     * Log the inputs read by the last {@link #refresh()}.
+     * <p>
+     * This must be called from the main thread, in registration order, to keep replay deterministic.
+     */
+    void log();
+
+    /**
+     * Get the name of the bus this device is on.
+     * Devices on the same bus are refreshed by the same worker thread.
+     *
+     * @return The bus name
+     */
+    default String getBus() {
+        return "rio";
+    }
+
+    /**
+     * Get the name of the device, as used in the logs
+     *
+     * @return The device's name
+     */
+    String getName();
 
     /**
      * Get latest sensor input data
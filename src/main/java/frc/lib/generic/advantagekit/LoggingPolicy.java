@@ -0,0 +1,59 @@
+package frc.lib.generic.advantagekit;
+
+/**
+ * Decides how often a signal of a {@link ChoosableLoggedInputs} is written to the log.
+ * <p>
+ * Skipped signals keep their last logged value in the log table, which is also what replay reads back,
+ * so signals that control the robot should stay {@link #FULL}.
+ */
+public class LoggingPolicy {
+    public enum Mode {
+        /** Log every loop */
+        FULL,
+        /** Log every n-th loop */
+        DECIMATED,
+        /** Log only when the value moved by more than the deadband since it was last logged */
+        ON_CHANGE,
+        /** Never log */
+        OFF
+    }
+
+    public static final LoggingPolicy FULL = new LoggingPolicy(Mode.FULL, 1, 0);
+    public static final LoggingPolicy OFF = new LoggingPolicy(Mode.OFF, 1, 0);
+
+    private final Mode mode;
+    private final int loopsBetweenLogs;
+    private final double deadband;
+
+    private LoggingPolicy(Mode mode, int loopsBetweenLogs, double deadband) {
+        this.mode = mode;
+        this.loopsBetweenLogs = loopsBetweenLogs;
+        this.deadband = deadband;
+    }
+
+    /**
+     * @param loopsBetweenLogs Log the signal once every this many loops
+     */
+    public static LoggingPolicy decimated(int loopsBetweenLogs) {
+        return new LoggingPolicy(Mode.DECIMATED, Math.max(1, loopsBetweenLogs), 0);
+    }
+
+    /**
+     * @param deadband How much the value has to move since it was last logged, for it to be logged again
+     */
+    public static LoggingPolicy onChange(double deadband) {
+        return new LoggingPolicy(Mode.ON_CHANGE, 1, deadband);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getLoopsBetweenLogs() {
+        return loopsBetweenLogs;
+    }
+
+    public double getDeadband() {
+        return deadband;
+    }
+}
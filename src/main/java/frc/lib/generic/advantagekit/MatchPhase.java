@@ -0,0 +1,23 @@
+package frc.lib.generic.advantagekit;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * The phases of a match that can have their own {@link LoggingPolicy}.
+ */
+public enum MatchPhase {
+    DISABLED, AUTONOMOUS, TELEOP, TEST;
+
+    /**
+     * Read from the {@link DriverStation}, which AdvantageKit logs and replays - so the phase is the same in replay.
+     *
+     * @return The current phase of the match
+     */
+    public static MatchPhase getCurrent() {
+        if (DriverStation.isDisabled()) return DISABLED;
+        if (DriverStation.isAutonomous()) return AUTONOMOUS;
+        if (DriverStation.isTest()) return TEST;
+
+        return TELEOP;
+    }
+}
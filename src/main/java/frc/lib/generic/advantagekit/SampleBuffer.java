@@ -0,0 +1,75 @@
+package frc.lib.generic.advantagekit;
+
+import frc.lib.generic.SignalQueue;
+
+import java.util.Arrays;
+
+/**
+ * A reusable, fixed-capacity array of samples, for inputs that receive a varying amount of samples every loop
+ * (e.g. the samples of a signal gathered by the {@link frc.lib.generic.OdometryThread}).
+ * <p>
+ * Only the first {@link #size()} elements of {@link #values} are valid.
+ * Filling the buffer and reading {@link #values} allocates nothing.
+ * <p>
+ * Logging must go through {@link #toArray()}, which returns a new array every call.
+ * The {@link org.littletonrobotics.junction.LogTable LogTable} keeps a reference to every logged array,
+ * and compares it to the previous loop's value later - a reused array would be overwritten before that,
+ * so its changes would never be written to the log.
+ */
+public class SampleBuffer {
+    public final double[] values;
+
+    private int size = 0;
+
+    /**
+     * @param capacity the maximum amount of samples the buffer can hold
+     */
+    public SampleBuffer(int capacity) {
+        values = new double[capacity];
+    }
+
+    /**
+     * @return the amount of valid samples
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the latest valid sample
+     */
+    public double getLatest() {
+        return values[size - 1];
+    }
+
+    /**
+     * Replaces the content of the buffer with a single sample.
+     */
+    public void set(double sample) {
+        values[0] = sample;
+        size = 1;
+    }
+
+    /**
+     * Replaces the content of the buffer with the pending samples of the queue, up to the buffer's capacity.
+     */
+    public void drainFrom(SignalQueue queue) {
+        size = queue.drainTo(values);
+    }
+
+    /**
+     * Replaces the content of the buffer with the given samples, up to the buffer's capacity.
+     * Used when reading the samples back from a log.
+     */
+    public void copyFrom(double[] samples) {
+        size = Math.min(samples.length, values.length);
+        System.arraycopy(samples, 0, values, 0, size);
+    }
+
+    /**
+     * @return a new array of exactly {@link #size()} elements holding the valid samples, safe to hand to the log
+     */
+    public double[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,116 @@
+package frc.lib.generic.advantagekit;
+
+import java.util.Arrays;
+
+/**
+ * Applies a {@link LoggingPolicy} per signal and per {@link MatchPhase} to a {@link ChoosableLoggedInputs}.
+ * <p>
+ * Signals are indexed like the inputs' <code>signalsToLog</code> mask - the first half are the main-loop signals,
+ * and the second half their faster thread counterparts, which share the policy of the matching main-loop signal.
+ * Every signal starts as {@link LoggingPolicy#FULL}.
+ * <p>
+ * The thread samples that odometry is built from are exempt, and are logged every loop under any policy.
+ * A replay reads one batch of samples per loop, and keeps the previous batch when a loop logged none -
+ * so a skipped batch would be integrated twice, and the replayed pose would diverge from the real one.
+ */
+public class SignalLogFilter {
+    private static final MatchPhase[] PHASES = MatchPhase.values();
+
+    private static MatchPhase currentPhase = MatchPhase.DISABLED;
+    private static long loopCount = 0;
+
+    private final int signalCount;
+    private final LoggingPolicy[][] policiesByPhase;
+    private final boolean[] isThreadSampleExempt;
+
+    private final double[] lastLoggedValues;
+    private final boolean[] hasLogged;
+
+    /**
+     * @param inputsLength The length of the inputs' <code>signalsToLog</code> mask
+     */
+    public SignalLogFilter(int inputsLength) {
+        signalCount = inputsLength / 2;
+        policiesByPhase = new LoggingPolicy[PHASES.length][signalCount];
+
+        for (LoggingPolicy[] policies : policiesByPhase)
+            Arrays.fill(policies, LoggingPolicy.FULL);
+
+        isThreadSampleExempt = new boolean[signalCount];
+
+        lastLoggedValues = new double[inputsLength];
+        hasLogged = new boolean[inputsLength];
+    }
+
+    /**
+     * Reads the current match phase and advances the loop count used for decimation.
+     * <p>
+     * Called once per loop by {@link frc.lib.generic.hardware.HardwareManager#update()}.
+     */
+    public static void updateLoop() {
+        currentPhase = MatchPhase.getCurrent();
+        loopCount++;
+    }
+
+    /**
+     * Logs the thread samples of the signal every loop, whatever its policy. Its main-loop value still follows the policy.
+     */
+    public void exemptThreadSamples(int signalId) {
+        isThreadSampleExempt[signalId] = true;
+    }
+
+    public void setPolicy(int signalId, MatchPhase phase, LoggingPolicy policy) {
+        policiesByPhase[phase.ordinal()][signalId] = policy;
+    }
+
+    public void setPolicy(int signalId, LoggingPolicy policy) {
+        for (MatchPhase phase : PHASES)
+            setPolicy(signalId, phase, policy);
+    }
+
+    /**
+     * @param index The index of the signal in the <code>signalsToLog</code> mask
+     * @param value The current value of the signal
+     * @return Whether to write the signal to the log this loop
+     */
+    public boolean shouldLog(int index, double value) {
+        final int signalId = index % signalCount;
+
+        if (index >= signalCount && isThreadSampleExempt[signalId]) return true;
+
+        final LoggingPolicy policy = policiesByPhase[currentPhase.ordinal()][signalId];
+
+        return switch (policy.getMode()) {
+            case FULL -> true;
+            case OFF -> false;
+            case DECIMATED -> (loopCount + signalId) % policy.getLoopsBetweenLogs() == 0;
+            case ON_CHANGE -> {
+                if (hasLogged[index] && Math.abs(value - lastLoggedValues[index]) <= policy.getDeadband()) yield false;
+
+                hasLogged[index] = true;
+                lastLoggedValues[index] = value;
+                yield true;
+            }
+        };
+    }
+
+    /**
+     * Thread signals are compared by their latest sample. An empty array is logged only under {@link LoggingPolicy.Mode#FULL FULL}
+     * or {@link LoggingPolicy.Mode#DECIMATED DECIMATED}.
+     */
+    public boolean shouldLog(int index, double[] samples) {
+        return shouldLog(index, samples.length, samples.length == 0 ? 0 : samples[samples.length - 1]);
+    }
+
+    public boolean shouldLog(int index, SampleBuffer samples) {
+        return shouldLog(index, samples.size(), samples.size() == 0 ? 0 : samples.getLatest());
+    }
+
+    private boolean shouldLog(int index, int sampleCount, double latestSample) {
+        final LoggingPolicy policy = policiesByPhase[currentPhase.ordinal()][index % signalCount];
+
+        if (sampleCount == 0 && policy.getMode() == LoggingPolicy.Mode.ON_CHANGE) return false;
+
+        return shouldLog(index, latestSample);
+    }
+}
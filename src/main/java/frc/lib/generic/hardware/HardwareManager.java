@@ -1,9 +1,12 @@
 package frc.lib.generic.hardware;
 
 import edu.wpi.first.wpilibj.Filesystem;
+import frc.lib.generic.ControlThread;
 import frc.lib.generic.OdometryThread;
 import frc.lib.generic.advantagekit.LoggableHardware;
+import frc.lib.generic.advantagekit.SignalLogFilter;
 import frc.lib.generic.simulation.GenericSimulation;
+import frc.lib.util.LoopProfiler;
 import frc.robot.GlobalConstants;
 import org.littletonrobotics.junction.LogFileUtil;
 import org.littletonrobotics.junction.LoggedRobot;
@@ -14,7 +17,14 @@ import org.littletonrobotics.junction.wpilog.WPILOGWriter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static frc.robot.GlobalConstants.*;
 
@@ -27,10 +37,20 @@ public enum HardwareManager {
     private static final List<LoggableHardware> hardware = new ArrayList<>();
     private static final List<Runnable> periodicRunnable = new ArrayList<>();
 
+    private static final int
+            PHOENIX_SIGNALS_SECTION = LoopProfiler.addSection("Hardware/PhoenixSignalRefresh"),
+            PARALLEL_REFRESH_SECTION = LoopProfiler.addSection("Hardware/ParallelRefresh");
+    private static int[] hardwareSections = new int[0];
+    private static int[] callbackSections = new int[0];
+
+    private static final List<Callable<Void>> busRefreshTasks = new ArrayList<>();
+    private static ExecutorService refreshExecutor;
+    private static int groupedHardwareCount = -1;
+
     /**
      * Initialize and start logging
      * <p>
-     * Call this at the beginning of <code>robotInit()</code>.
+     * Call this in <code>robotInit()</code>, after every device has been created.
      * <p>
      * To enable replay, set the variable <code>CURRENT_MODE=REPLAY</code>
      *
@@ -55,6 +75,9 @@ public enum HardwareManager {
         }
 
         Logger.start();
+
+        OdometryThread.getInstance().startSampling();
+        ControlThread.getInstance().startStepping();
     }
 
 
@@ -67,6 +90,11 @@ public enum HardwareManager {
      */
     public static void addHardware(LoggableHardware... devices) {
         hardware.addAll(Arrays.asList(devices));
+
+        for (LoggableHardware device : devices) {
+            hardwareSections = Arrays.copyOf(hardwareSections, hardwareSections.length + 1);
+            hardwareSections[hardwareSections.length - 1] = LoopProfiler.addSection("Hardware/" + device.getName());
+        }
     }
 
     /**
@@ -76,26 +104,108 @@ public enum HardwareManager {
      */
     public static void addCallback(Runnable periodicRunnable) {
         HardwareManager.periodicRunnable.add(periodicRunnable);
+
+        callbackSections = Arrays.copyOf(callbackSections, callbackSections.length + 1);
+        callbackSections[callbackSections.length - 1] = LoopProfiler.addSection("Callbacks/" + (callbackSections.length - 1));
     }
 
     /**
      * Update all hardware devices
      * <p>
      * Call this periodically, preferably in the beginning of <code>robotPeriodic()</code> every loop
+     * <p>
+     * If <code>USE_PARALLEL_HARDWARE_REFRESH</code> is enabled, the devices of every bus are refreshed concurrently,
+     * and only then logged on the main thread, in registration order.
      */
     public static void update() {
-        //TODO: Only if hardware should use lock, USE LOCK
-        FASTER_THREAD_LOCK.lock();
+        OdometryThread.getInstance().latchFrames();
+        SignalLogFilter.updateLoop();
+
+        long sectionStart = LoopProfiler.start();
+        PhoenixSignalRegistry.refreshAll();
+        LoopProfiler.end(PHOENIX_SIGNALS_SECTION, sectionStart);
+
+        if (USE_PARALLEL_HARDWARE_REFRESH && CURRENT_MODE == GlobalConstants.Mode.REAL) {
+            sectionStart = LoopProfiler.start();
+            refreshInParallel();
+            LoopProfiler.end(PARALLEL_REFRESH_SECTION, sectionStart);
+
+            for (int i = 0; i < hardware.size(); i++) {
+                sectionStart = LoopProfiler.start();
+                hardware.get(i).log();
+                LoopProfiler.end(hardwareSections[i], sectionStart);
+            }
+        } else {
+            for (int i = 0; i < hardware.size(); i++) {
+                sectionStart = LoopProfiler.start();
+                hardware.get(i).periodic();
+                LoopProfiler.end(hardwareSections[i], sectionStart);
+            }
+        }
+
+        OdometryThread.getInstance().updateLatestTimestamps();
+
+        for (int i = 0; i < periodicRunnable.size(); i++) {
+            sectionStart = LoopProfiler.start();
+            periodicRunnable.get(i).run();
+            LoopProfiler.end(callbackSections[i], sectionStart);
+        }
+    }
+
+    private static void refreshInParallel() {
+        if (groupedHardwareCount != hardware.size()) groupHardwareByBus();
+
+        final List<Future<Void>> results;
+
+        try {
+            results = refreshExecutor.invokeAll(busRefreshTasks);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        for (Future<Void> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException exception) {
+                exception.getCause().printStackTrace();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Builds one refresh task per bus. Devices on the same bus are refreshed one after the other,
+     * as their reads would contend on that bus anyway.
+     */
+    private static void groupHardwareByBus() {
+        final Map<String, List<LoggableHardware>> hardwareByBus = new LinkedHashMap<>();
 
         for (LoggableHardware loggableHardware : hardware) {
-            loggableHardware.periodic();
+            hardwareByBus.computeIfAbsent(loggableHardware.getBus(), bus -> new ArrayList<>()).add(loggableHardware);
         }
 
-        OdometryThread.getInstance().updateLatestTimestamps();
+        busRefreshTasks.clear();
+
+        for (List<LoggableHardware> busHardware : hardwareByBus.values()) {
+            final LoggableHardware[] devices = busHardware.toArray(new LoggableHardware[0]);
 
-        FASTER_THREAD_LOCK.unlock();
+            busRefreshTasks.add(() -> {
+                for (LoggableHardware device : devices) device.refresh();
+                return null;
+            });
+        }
+
+        if (refreshExecutor == null) {
+            refreshExecutor = Executors.newFixedThreadPool(HARDWARE_REFRESH_THREADS, runnable -> {
+                final Thread thread = new Thread(runnable, "HardwareRefresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
 
-        periodicRunnable.forEach(Runnable::run);
+        groupedHardwareCount = hardware.size();
     }
 
     public static void updateSimulation() {
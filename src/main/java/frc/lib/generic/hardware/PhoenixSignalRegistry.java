@@ -0,0 +1,126 @@
+package frc.lib.generic.hardware;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusCode;
+
+import java.util.Arrays;
+
+/**
+ * Groups Phoenix 6 status signals by bus, so they can all be refreshed with a single
+ * {@link BaseStatusSignal#refreshAll(BaseStatusSignal...)} per bus instead of one per device.
+ * A single refresh can't span buses, so signals from different buses are never refreshed together.
+ * <p>
+ * The main-loop signals of every device are collected in a shared registry, through {@link #register(String, BaseStatusSignal)}.
+ * Devices keep their own {@link com.ctre.phoenix6.StatusSignal StatusSignal} objects as their view of the results -
+ * after {@link #refreshAll()}, {@code getValue()} on any registered signal returns the latest value without another CAN call.
+ * <p>
+ * Other refreshers, like the odometry thread, can keep a registry of their own.
+ */
+public class PhoenixSignalRegistry {
+    private static final PhoenixSignalRegistry MAIN_LOOP_SIGNALS = new PhoenixSignalRegistry();
+
+    private volatile String[] buses = new String[0];
+    private volatile BaseStatusSignal[][] signalsByBus = new BaseStatusSignal[0][];
+
+    /**
+     * Add a signal to the batch of its bus. Registering the same signal twice has no effect.
+     * <p>
+     * Should only be called from the main thread.
+     *
+     * @param bus    The name of the bus the device is on
+     * @param signal The signal to refresh every loop
+     */
+    public static void register(String bus, BaseStatusSignal signal) {
+        MAIN_LOOP_SIGNALS.add(bus, signal);
+    }
+
+    /**
+     * Refresh every registered signal, with one batched call per bus.
+     * <p>
+     * Called by {@link HardwareManager#update()} before any device is refreshed.
+     */
+    public static void refreshAll() {
+        MAIN_LOOP_SIGNALS.refresh();
+    }
+
+    /**
+     * Add a signal to the batch of its bus. Adding the same signal twice has no effect.
+     * <p>
+     * Adding only synchronizes with other additions. A refresh in progress on another thread keeps refreshing the previous set of signals.
+     *
+     * @param bus    The name of the bus the device is on
+     * @param signal The signal to refresh
+     */
+    public synchronized void add(String bus, BaseStatusSignal signal) {
+        final int existingBusIndex = indexOf(bus);
+        final int busIndex = existingBusIndex == -1 ? addBus(bus) : existingBusIndex;
+        final BaseStatusSignal[] busSignals = signalsByBus[busIndex];
+
+        for (BaseStatusSignal registeredSignal : busSignals) {
+            if (registeredSignal == signal) return;
+        }
+
+        final BaseStatusSignal[] newBusSignals = Arrays.copyOf(busSignals, busSignals.length + 1);
+        newBusSignals[busSignals.length] = signal;
+
+        final BaseStatusSignal[][] newSignalsByBus = signalsByBus.clone();
+        newSignalsByBus[busIndex] = newBusSignals;
+        signalsByBus = newSignalsByBus;
+    }
+
+    /**
+     * Refresh every added signal, with one batched call per bus.
+     *
+     * @return {@link StatusCode#OK} if every bus was refreshed, or the error of the first bus that wasn't
+     */
+    public StatusCode refresh() {
+        StatusCode result = StatusCode.OK;
+
+        for (BaseStatusSignal[] busSignals : signalsByBus) {
+            if (busSignals.length == 0) continue;
+
+            final StatusCode status = BaseStatusSignal.refreshAll(busSignals);
+            if (result.isOK() && !status.isOK()) result = status;
+        }
+
+        return result;
+    }
+
+    /**
+     * Set how often every added signal is sent by its device, with one batched call per bus.
+     *
+     * @param frequencyHertz the new update frequency
+     */
+    public void setUpdateFrequency(double frequencyHertz) {
+        for (BaseStatusSignal[] busSignals : signalsByBus) {
+            if (busSignals.length != 0) BaseStatusSignal.setUpdateFrequencyForAll(frequencyHertz, busSignals);
+        }
+    }
+
+    /**
+     * @return whether no signal was added yet
+     */
+    public boolean isEmpty() {
+        return signalsByBus.length == 0;
+    }
+
+    private int indexOf(String bus) {
+        for (int i = 0; i < buses.length; i++) {
+            if (buses[i].equals(bus)) return i;
+        }
+
+        return -1;
+    }
+
+    private int addBus(String bus) {
+        final String[] newBuses = Arrays.copyOf(buses, buses.length + 1);
+        newBuses[buses.length] = bus;
+        buses = newBuses;
+
+        final BaseStatusSignal[][] newSignalsByBus = Arrays.copyOf(signalsByBus, signalsByBus.length + 1);
+        newSignalsByBus[signalsByBus.length] = new BaseStatusSignal[0];
+        signalsByBus = newSignalsByBus;
+
+        return buses.length - 1;
+    }
+}
@@ -1,6 +1,8 @@
 package frc.lib.generic.hardware.encoder;
 
 import frc.lib.generic.advantagekit.LoggableHardware;
+import frc.lib.generic.advantagekit.LoggingPolicy;
+import frc.lib.generic.advantagekit.MatchPhase;
 import frc.lib.generic.hardware.HardwareManager;
 import frc.robot.GlobalConstants;
 import org.littletonrobotics.junction.Logger;
@@ -42,13 +44,37 @@ public class Encoder implements LoggableHardware {
 
     public void setupSignalUpdates(EncoderSignal signal) { setupSignalUpdates(signal, false); }
 
+    /**
+     * Choose how often a signal (and its faster thread counterpart) is written to the log, in every match phase.
+     * Signals are logged every loop by default.
+     */
+    public void setLoggingPolicy(EncoderSignal signal, LoggingPolicy policy) {
+        inputs.getLogFilter().setPolicy(signal.getId(), policy);
+    }
+
+    /**
+     * Choose how often a signal (and its faster thread counterpart) is written to the log, during the given match phase.
+     */
+    public void setLoggingPolicy(EncoderSignal signal, MatchPhase phase, LoggingPolicy policy) {
+        inputs.getLogFilter().setPolicy(signal.getId(), phase, policy);
+    }
+
     public boolean configure(EncoderConfiguration encoderConfiguration) { return true; }
 
     protected void refreshInputs(EncoderInputs inputs) { }
 
     @Override
-    public void periodic() {
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void refresh() {
         refreshInputs(inputs);
+    }
+
+    @Override
+    public void log() {
         Logger.processInputs("Encoders/" + name, inputs);
     }
 
@@ -1,33 +1,47 @@
 package frc.lib.generic.hardware.encoder;
 
 import frc.lib.generic.advantagekit.ChoosableLoggedInputs;
+import frc.lib.generic.advantagekit.SampleBuffer;
+import frc.lib.generic.advantagekit.SignalLogFilter;
 import org.littletonrobotics.junction.LogTable;
 
+import static frc.lib.generic.OdometryThread.QUEUE_CAPACITY;
+
 public class EncoderInputs implements ChoosableLoggedInputs {
     public static final int ENCODER_INPUTS_LENGTH = 4;
 
     public double position = 0;
     public double velocity = 0;
 
-    public double[] threadPosition = new double[0];
-    public double[] threadVelocity = new double[0];
+    public final SampleBuffer threadPosition = new SampleBuffer(QUEUE_CAPACITY);
+    public final SampleBuffer threadVelocity = new SampleBuffer(QUEUE_CAPACITY);
 
     private boolean[] signalsToLog;
+    private final SignalLogFilter logFilter = new SignalLogFilter(ENCODER_INPUTS_LENGTH);
+
+    public EncoderInputs() {
+        logFilter.exemptThreadSamples(EncoderSignal.POSITION.getId());
+    }
 
     @Override
     public void setSignalsToLog(boolean[] signalsToLog) {
         this.signalsToLog = signalsToLog;
     }
 
+    @Override
+    public SignalLogFilter getLogFilter() {
+        return logFilter;
+    }
+
     @Override
     public void toLog(LogTable table) {
         if (signalsToLog == null) return;
 
-        if (signalsToLog[0]) table.put("Position", position);
-        if (signalsToLog[1]) table.put("Velocity", velocity);
+        if (signalsToLog[0] && logFilter.shouldLog(0, position)) table.put("Position", position);
+        if (signalsToLog[1] && logFilter.shouldLog(1, velocity)) table.put("Velocity", velocity);
 
-        if (signalsToLog[2]) table.put("ThreadPosition", threadPosition);
-        if (signalsToLog[3]) table.put("ThreadVelocity", threadVelocity);
+        if (signalsToLog[2] && logFilter.shouldLog(2, threadPosition)) table.put("ThreadPosition", threadPosition.toArray());
+        if (signalsToLog[3] && logFilter.shouldLog(3, threadVelocity)) table.put("ThreadVelocity", threadVelocity.toArray());
     }
 
     @Override
@@ -35,7 +49,7 @@ public class EncoderInputs implements ChoosableLoggedInputs {
         position = table.get("Position", position);
         velocity = table.get("Velocity", velocity);
 
-        threadPosition = table.get("ThreadPosition", threadPosition);
-        threadVelocity = table.get("ThreadVelocity", threadVelocity);
+        threadPosition.copyFrom(table.get("ThreadPosition", threadPosition.toArray()));
+        threadVelocity.copyFrom(table.get("ThreadVelocity", threadVelocity.toArray()));
     }
 }
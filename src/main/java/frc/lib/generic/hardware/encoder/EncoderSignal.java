@@ -3,6 +3,9 @@ package frc.lib.generic.hardware.encoder;
 public enum EncoderSignal {
     POSITION(0), VELOCITY(1);
 
+    /** The amount of signals, for sizing tables indexed by {@link #getId()} */
+    public static final int COUNT = values().length;
+
     final int id;
 
     EncoderSignal(int id) {
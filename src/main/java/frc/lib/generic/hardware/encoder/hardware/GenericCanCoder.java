@@ -1,6 +1,5 @@
 package frc.lib.generic.hardware.encoder.hardware;
 
-import com.ctre.phoenix6.BaseStatusSignal;
 import com.ctre.phoenix6.StatusCode;
 import com.ctre.phoenix6.StatusSignal;
 import com.ctre.phoenix6.configs.CANcoderConfiguration;
@@ -8,11 +7,12 @@ import com.ctre.phoenix6.hardware.CANcoder;
 import com.ctre.phoenix6.signals.AbsoluteSensorRangeValue;
 import com.ctre.phoenix6.signals.SensorDirectionValue;
 import frc.lib.generic.OdometryThread;
+import frc.lib.generic.SignalQueue;
+import frc.lib.generic.hardware.PhoenixSignalRegistry;
 import frc.lib.generic.hardware.encoder.*;
 
-import java.util.*;
-
 import static frc.lib.generic.hardware.encoder.EncoderInputs.ENCODER_INPUTS_LENGTH;
+import static frc.robot.GlobalConstants.*;
 
 /**
  * Wrapper class for the CAN encoder.
@@ -25,41 +25,55 @@ public class GenericCanCoder extends Encoder {
     private final CANcoder canCoder;
     private final CANcoderConfiguration canCoderConfig = new CANcoderConfiguration();
 
-    private final Map<String, Queue<Double>> signalQueueList = new HashMap<>();
-
-    private final List<StatusSignal<Double>> signalsToUpdateList = new ArrayList<>();
-    private final StatusSignal<Double> positionSignal, velocitySignal;
+    /** The main loop's signals and the odometry thread's queues, indexed by {@link EncoderSignal#getId()} */
+    private final StatusSignal<Double>[] signals = createSignalTable();
+    private final SignalQueue[] signalQueues = new SignalQueue[EncoderSignal.COUNT];
 
     public GenericCanCoder(String name, int canCoderID) {
         super(name);
 
         canCoder = new CANcoder(canCoderID);
 
-        positionSignal = canCoder.getPosition().clone();
-        velocitySignal = canCoder.getVelocity().clone();
+        signals[EncoderSignal.POSITION.getId()] = canCoder.getPosition().clone();
+        signals[EncoderSignal.VELOCITY.getId()] = canCoder.getVelocity().clone();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StatusSignal<Double>[] createSignalTable() {
+        return new StatusSignal[EncoderSignal.COUNT];
     }
 
     @Override
     public void setupSignalUpdates(EncoderSignal signal, boolean useFasterThread) {
-        final int updateFrequency = useFasterThread ? 200 : 50;
+        final double updateFrequency = useFasterThread ? getFasterThreadFrequency() : 50;
 
         signalsToLog[signal.getId()] = true;
 
-        switch (signal) {
-            case POSITION -> setupSignal(positionSignal, updateFrequency);
-            case VELOCITY -> setupSignal(velocitySignal, updateFrequency);
-        }
+        setupSignal(signals[signal.getId()], updateFrequency);
 
         if (!useFasterThread) return;
 
         signalsToLog[signal.getId() + ENCODER_INPUTS_LENGTH / 2] = true;
 
-        switch (signal) {
-            case POSITION ->
-                    signalQueueList.put("position", OdometryThread.getInstance().registerSignal(this::getEncoderPositionPrivate));
-            case VELOCITY ->
-                    signalQueueList.put("velocity", OdometryThread.getInstance().registerSignal(this::getEncoderVelocityPrivate));
-        }
+        signalQueues[signal.getId()] = switch (signal) {
+            case POSITION -> registerLatencyCompensatedSignal(signals[signal.getId()], signals[EncoderSignal.VELOCITY.getId()]);
+            case VELOCITY -> OdometryThread.getInstance().registerSignal(signals[signal.getId()].clone(), getBus(), getName());
+        };
+    }
+
+    private double getFasterThreadFrequency() {
+        return USE_PHOENIX_SYNCHRONOUS_ODOMETRY ? PHOENIX_ODOMETRY_FREQUENCY_HERTZ : ODOMETRY_FREQUENCY_HERTZ;
+    }
+
+    /**
+     * Lets the odometry thread refresh dedicated clones of the signal and its slope on every tick,
+     * and latency compensate every sample, so the samples stay aligned with the TalonFX ones.
+     */
+    private SignalQueue registerLatencyCompensatedSignal(StatusSignal<Double> signal, StatusSignal<Double> slope) {
+        final StatusSignal<Double> slopeClone = slope.clone();
+        slopeClone.setUpdateFrequency(getFasterThreadFrequency());
+
+        return OdometryThread.getInstance().registerLatencyCompensatedSignal(signal.clone(), slopeClone, getBus(), getName());
     }
 
     @Override
@@ -94,37 +108,37 @@ public class GenericCanCoder extends Encoder {
         return signalsToLog;
     }
 
+    @Override
+    public String getBus() {
+        return canCoder.getNetwork();
+    }
+
     @Override
     protected void refreshInputs(EncoderInputs inputs) {
         if (canCoder == null) return;
 
         inputs.setSignalsToLog(signalsToLog);
 
-        BaseStatusSignal.refreshAll(signalsToUpdateList.toArray(new BaseStatusSignal[0]));
-
         inputs.position = getEncoderPositionPrivate();
         inputs.velocity = getEncoderVelocityPrivate();
 
-        if (signalQueueList.isEmpty()) return;
-
-        if (signalQueueList.get("position") != null)
-            inputs.threadPosition = signalQueueList.get("position").stream().mapToDouble(Double::doubleValue).toArray();
-        if (signalQueueList.get("velocity") != null)
-            inputs.threadVelocity = signalQueueList.get("velocity").stream().mapToDouble(Double::doubleValue).toArray();
+        final SignalQueue positionQueue = signalQueues[EncoderSignal.POSITION.getId()];
+        final SignalQueue velocityQueue = signalQueues[EncoderSignal.VELOCITY.getId()];
 
-        signalQueueList.forEach((k, v) -> v.clear());
+        if (positionQueue != null) inputs.threadPosition.drainFrom(positionQueue);
+        if (velocityQueue != null) inputs.threadVelocity.drainFrom(velocityQueue);
     }
 
     private double getEncoderPositionPrivate() {
-        return positionSignal.refresh().getValue();
+        return signals[EncoderSignal.POSITION.getId()].getValue();
     }
 
     private double getEncoderVelocityPrivate() {
-        return velocitySignal.refresh().getValue();
+        return signals[EncoderSignal.VELOCITY.getId()].getValue();
     }
 
-    private void setupSignal(final StatusSignal<Double> correspondingSignal, int updateFrequency) {
-        signalsToUpdateList.add(correspondingSignal);
+    private void setupSignal(final StatusSignal<Double> correspondingSignal, double updateFrequency) {
+        PhoenixSignalRegistry.register(getBus(), correspondingSignal);
         correspondingSignal.setUpdateFrequency(updateFrequency);
     }
 }
@@ -50,7 +50,7 @@ public class SimulatedCanCoder extends Encoder {
         inputs.position = positionSupplier.getAsDouble();
         inputs.velocity = velocitySupplier.getAsDouble();
 
-        inputs.threadPosition = new double[]{inputs.position};
-        inputs.threadVelocity = new double[]{inputs.velocity};
+        inputs.threadPosition.set(inputs.position);
+        inputs.threadVelocity.set(inputs.velocity);
     }
 }
@@ -2,6 +2,8 @@ package frc.lib.generic.hardware.motor;
 
 import frc.lib.generic.hardware.HardwareManager;
 import frc.lib.generic.advantagekit.LoggableHardware;
+import frc.lib.generic.advantagekit.LoggingPolicy;
+import frc.lib.generic.advantagekit.MatchPhase;
 import frc.lib.generic.hardware.encoder.Encoder;
 import frc.robot.GlobalConstants;
 import org.littletonrobotics.junction.Logger;
@@ -22,6 +24,11 @@ public class Motor implements LoggableHardware {
 
     private MotorConfiguration configuration;
 
+    private Enum<?> lastRequestType = null;
+    private int lastRequestSlot;
+    private double lastRequestOutput, lastRequestFeedforward;
+    private long lastRequestTimestamp;
+
     public Motor(String name) {
         this.name = name;
 
@@ -29,6 +36,7 @@ public class Motor implements LoggableHardware {
         HardwareManager.addHardware(this);
     }
 
+    @Override
     public String getName() {
         return name;
     }
@@ -257,6 +265,21 @@ public class Motor implements LoggableHardware {
 
     public void setupSignalUpdates(MotorSignal signal) { setupSignalUpdates(signal, false); }
 
+    /**
+     * Choose how often a signal (and its faster thread counterpart) is written to the log, in every match phase.
+     * Signals are logged every loop by default. The thread samples of {@link MotorSignal#POSITION} feed odometry, so they're always logged.
+     */
+    public void setLoggingPolicy(MotorSignal signal, LoggingPolicy policy) {
+        inputs.getLogFilter().setPolicy(signal.getId(), policy);
+    }
+
+    /**
+     * Choose how often a signal (and its faster thread counterpart) is written to the log, during the given match phase.
+     */
+    public void setLoggingPolicy(MotorSignal signal, MatchPhase phase, LoggingPolicy policy) {
+        inputs.getLogFilter().setPolicy(signal.getId(), phase, policy);
+    }
+
     public boolean configure(MotorConfiguration configuration) {
         this.configuration = configuration;
         return true;
@@ -301,13 +324,54 @@ public class Motor implements LoggableHardware {
     }
 
 
+    /**
+     * Checks whether a control request differs enough from the last request sent to the motor to be worth a CAN frame.
+     * Commands usually re-send the same setpoint every loop, so repeated requests are only re-sent every
+     * {@link MotorConfiguration#controlRequestRefreshSeconds}, and the request is remembered as sent if this returns true.
+     *
+     * @param requestType the kind of request (e.g. the control mode). Requests of different kinds are always sent
+     * @return whether the request should be sent to the motor
+     */
+    protected boolean shouldSendRequest(Enum<?> requestType, int slot, double output, double feedforward) {
+        final MotorConfiguration currentConfiguration = getCurrentConfiguration();
+        final long timestamp = Logger.getRealTimestamp();
+
+        if (currentConfiguration != null
+                && requestType == lastRequestType
+                && slot == lastRequestSlot
+                && Math.abs(output - lastRequestOutput) <= currentConfiguration.controlRequestTolerance
+                && Math.abs(feedforward - lastRequestFeedforward) <= currentConfiguration.controlRequestTolerance
+                && timestamp - lastRequestTimestamp < currentConfiguration.controlRequestRefreshSeconds * 1.0e6)
+            return false;
+
+        lastRequestType = requestType;
+        lastRequestSlot = slot;
+        lastRequestOutput = output;
+        lastRequestFeedforward = feedforward;
+        lastRequestTimestamp = timestamp;
+
+        return true;
+    }
+
+    /**
+     * Forgets the last sent control request, so the next one is sent no matter what.
+     * Call this whenever the motor is commanded outside of {@link #shouldSendRequest(Enum, int, double, double)} (stopping, following, reconfiguring).
+     */
+    protected void invalidateLastRequest() {
+        lastRequestType = null;
+    }
+
     protected void refreshInputs(MotorInputs inputs) { }
 
     protected boolean[] getSignalsToLog() { return new boolean[MOTOR_INPUTS_LENGTH]; }
 
     @Override
-    public void periodic() {
+    public void refresh() {
         refreshInputs(inputs);
+    }
+
+    @Override
+    public void log() {
         Logger.processInputs("Motors/" + name, inputs);
     }
 
@@ -104,6 +104,17 @@ public class MotorConfiguration {
      */
     public double profiledJerk = 0;
 
+    /**
+     * Whether a position profile should run on the motor controller itself, instead of on the roboRIO.
+     * The onboard profile doesn't depend on the main loop's timing, and feedforward is added on top of it by the roboRIO.
+     * Only supported by Sparks (Smart Motion). Ignored if {@link #profiledJerk} is set, as the Spark can't limit jerk.
+     *
+     * <ul>
+     *   <li> <b>Default Value:</b> false
+     * </ul>
+     */
+    public boolean useOnboardProfile = false;
+
     /**
      * Tolerance for closed-loop control, used for determining if the target is reached.
      * If this is not set, {@link Motor#isAtPositionSetpoint()} and {@link Motor#isAtVelocitySetpoint()} will throw an exception
@@ -116,4 +127,29 @@ public class MotorConfiguration {
      * <p>Ignored if set to 0. Used for checking isAtTarget.</p>
      */
     public double closedLoopTolerance = 0;
+
+    /**
+     * How much a control request's output (and feedforward) may differ from the last request sent to the motor,
+     * while still counting as the same request. Repeated requests are not sent over CAN until {@link #controlRequestRefreshSeconds} has passed.
+     *
+     * <ul>
+     *   <li> <b>Minimum Value:</b> 0
+     *   <li> <b>Default Value:</b> 0 (only identical requests are skipped)
+     *   <li> <b>Units:</b> the request's units (rotations, rps, volts, amps or duty cycle). Volts for the feedforward
+     * </ul>
+     */
+    public double controlRequestTolerance = 0;
+
+    /**
+     * How often a repeated control request is still re-sent, so the motor picks the setpoint up again if it lost it (e.g. after a brownout).
+     *
+     * <ul>
+     *   <li> <b>Minimum Value:</b> 0
+     *   <li> <b>Default Value:</b> 0.1
+     *   <li> <b>Units:</b> sec
+     * </ul>
+     *
+     * <p>If set to 0, every control request is sent.</p>
+     */
+    public double controlRequestRefreshSeconds = 0.1;
 }
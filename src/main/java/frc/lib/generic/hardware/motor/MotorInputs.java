@@ -1,8 +1,16 @@
 package frc.lib.generic.hardware.motor;
 
 import frc.lib.generic.advantagekit.ChoosableLoggedInputs;
+import frc.lib.generic.advantagekit.SignalLogFilter;
+import frc.lib.generic.advantagekit.SampleBuffer;
 import org.littletonrobotics.junction.LogTable;
 
+import static frc.lib.generic.OdometryThread.QUEUE_CAPACITY;
+
+/**
+ * The thread inputs are reusable {@link SampleBuffer SampleBuffers}, so refreshing them allocates nothing.
+ * Only logging them copies their valid samples, as logged arrays must not be reused.
+ */
 public class MotorInputs implements ChoosableLoggedInputs {
     public static final int MOTOR_INPUTS_LENGTH = 14;
 
@@ -14,40 +22,55 @@ public class MotorInputs implements ChoosableLoggedInputs {
     public double systemVelocity = 0;
     public double systemAcceleration = 0;
 
-    public double[] threadVoltage = new double[0];
-    public double[] threadCurrent = new double[0];
-    public double[] threadTemperature = new double[0];
-    public double[] threadTarget = new double[0];
-    public double[] threadSystemPosition = new double[0];
-    public double[] threadSystemVelocity = new double[0];
-    public double[] threadSystemAcceleration = new double[0];
+    public final SampleBuffer threadVoltage = new SampleBuffer(QUEUE_CAPACITY);
+    public final SampleBuffer threadCurrent = new SampleBuffer(QUEUE_CAPACITY);
+    public final SampleBuffer threadTemperature = new SampleBuffer(QUEUE_CAPACITY);
+    public final SampleBuffer threadTarget = new SampleBuffer(QUEUE_CAPACITY);
+    public final SampleBuffer threadSystemPosition = new SampleBuffer(QUEUE_CAPACITY);
+    public final SampleBuffer threadSystemVelocity = new SampleBuffer(QUEUE_CAPACITY);
+    public final SampleBuffer threadSystemAcceleration = new SampleBuffer(QUEUE_CAPACITY);
+    /** The time each of the thread's position samples was received over CAN, in FPGA seconds. Only filled by devices that report it */
+    public final SampleBuffer threadCanTimestamps = new SampleBuffer(QUEUE_CAPACITY);
 
     private boolean[] signalsToLog;
+    private final SignalLogFilter logFilter = new SignalLogFilter(MOTOR_INPUTS_LENGTH);
+
+    public MotorInputs() {
+        logFilter.exemptThreadSamples(MotorSignal.POSITION.getId());
+    }
 
     @Override
     public void setSignalsToLog(boolean[] signalsToLog) {
         this.signalsToLog = signalsToLog;
     }
 
+    @Override
+    public SignalLogFilter getLogFilter() {
+        return logFilter;
+    }
+
     @Override
     public void toLog(LogTable table) {
         if (signalsToLog == null) return;
 
-        if (signalsToLog[0]) table.put("Voltage", voltage);
-        if (signalsToLog[1]) table.put("Current", current);
-        if (signalsToLog[2]) table.put("Temperature", temperature);
-        if (signalsToLog[3]) table.put("Target", target);
-        if (signalsToLog[4]) table.put("SystemPosition", systemPosition);
-        if (signalsToLog[5]) table.put("SystemVelocity", systemVelocity);
-        if (signalsToLog[6]) table.put("SystemAcceleration", systemAcceleration);
+        if (signalsToLog[0] && logFilter.shouldLog(0, voltage)) table.put("Voltage", voltage);
+        if (signalsToLog[1] && logFilter.shouldLog(1, current)) table.put("Current", current);
+        if (signalsToLog[2] && logFilter.shouldLog(2, temperature)) table.put("Temperature", temperature);
+        if (signalsToLog[3] && logFilter.shouldLog(3, target)) table.put("Target", target);
+        if (signalsToLog[4] && logFilter.shouldLog(4, systemPosition)) table.put("SystemPosition", systemPosition);
+        if (signalsToLog[5] && logFilter.shouldLog(5, systemVelocity)) table.put("SystemVelocity", systemVelocity);
+        if (signalsToLog[6] && logFilter.shouldLog(6, systemAcceleration)) table.put("SystemAcceleration", systemAcceleration);
 
-        if (signalsToLog[7]) table.put("ThreadVoltage", threadVoltage);
-        if (signalsToLog[8]) table.put("ThreadCurrent", threadCurrent);
-        if (signalsToLog[9]) table.put("ThreadTemperature", threadTemperature);
-        if (signalsToLog[10]) table.put("ThreadTarget", threadTarget);
-        if (signalsToLog[11]) table.put("ThreadSystemPosition", threadSystemPosition);
-        if (signalsToLog[12]) table.put("ThreadSystemVelocity", threadSystemVelocity);
-        if (signalsToLog[13]) table.put("ThreadSystemAcceleration", threadSystemAcceleration);
+        if (signalsToLog[7] && logFilter.shouldLog(7, threadVoltage)) table.put("ThreadVoltage", threadVoltage.toArray());
+        if (signalsToLog[8] && logFilter.shouldLog(8, threadCurrent)) table.put("ThreadCurrent", threadCurrent.toArray());
+        if (signalsToLog[9] && logFilter.shouldLog(9, threadTemperature)) table.put("ThreadTemperature", threadTemperature.toArray());
+        if (signalsToLog[10] && logFilter.shouldLog(10, threadTarget)) table.put("ThreadTarget", threadTarget.toArray());
+        if (signalsToLog[11] && logFilter.shouldLog(11, threadSystemPosition)) {
+            table.put("ThreadSystemPosition", threadSystemPosition.toArray());
+            if (threadCanTimestamps.size() > 0) table.put("ThreadCanTimestamps", threadCanTimestamps.toArray());
+        }
+        if (signalsToLog[12] && logFilter.shouldLog(12, threadSystemVelocity)) table.put("ThreadSystemVelocity", threadSystemVelocity.toArray());
+        if (signalsToLog[13] && logFilter.shouldLog(13, threadSystemAcceleration)) table.put("ThreadSystemAcceleration", threadSystemAcceleration.toArray());
     }
 
     @Override
@@ -60,12 +83,13 @@ public class MotorInputs implements ChoosableLoggedInputs {
         systemVelocity = table.get("SystemVelocity", systemVelocity);
         systemAcceleration = table.get("SystemAcceleration", systemAcceleration);
 
-        threadVoltage = table.get("ThreadVoltage", threadVoltage);
-        threadCurrent = table.get("ThreadCurrent", threadCurrent);
-        threadTemperature = table.get("ThreadTemperature", threadTemperature);
-        threadTarget = table.get("ThreadTarget", threadTarget);
-        threadSystemPosition = table.get("ThreadSystemPosition", threadSystemPosition);
-        threadSystemVelocity = table.get("ThreadSystemVelocity", threadSystemVelocity);
-        threadSystemAcceleration = table.get("ThreadSystemAcceleration", threadSystemAcceleration);
+        threadVoltage.copyFrom(table.get("ThreadVoltage", threadVoltage.toArray()));
+        threadCurrent.copyFrom(table.get("ThreadCurrent", threadCurrent.toArray()));
+        threadTemperature.copyFrom(table.get("ThreadTemperature", threadTemperature.toArray()));
+        threadTarget.copyFrom(table.get("ThreadTarget", threadTarget.toArray()));
+        threadSystemPosition.copyFrom(table.get("ThreadSystemPosition", threadSystemPosition.toArray()));
+        threadCanTimestamps.copyFrom(table.get("ThreadCanTimestamps", threadCanTimestamps.toArray()));
+        threadSystemVelocity.copyFrom(table.get("ThreadSystemVelocity", threadSystemVelocity.toArray()));
+        threadSystemAcceleration.copyFrom(table.get("ThreadSystemAcceleration", threadSystemAcceleration.toArray()));
     }
 }
@@ -3,6 +3,9 @@ package frc.lib.generic.hardware.motor;
 public enum MotorSignal {
     CURRENT(1), POSITION(4), VELOCITY(5), VOLTAGE(0), TEMPERATURE(2), CLOSED_LOOP_TARGET(3), ACCELERATION(6);
 
+    /** The amount of signals, for sizing tables indexed by {@link #getId()} */
+    public static final int COUNT = values().length;
+
     final int id;
 
     MotorSignal(int id) {
@@ -1,6 +1,5 @@
 package frc.lib.generic.hardware.motor.hardware;
 
-import com.ctre.phoenix6.BaseStatusSignal;
 import com.ctre.phoenix6.StatusCode;
 import com.ctre.phoenix6.StatusSignal;
 import com.ctre.phoenix6.configs.TalonFXConfiguration;
@@ -12,21 +11,24 @@ import com.ctre.phoenix6.signals.InvertedValue;
 import com.ctre.phoenix6.signals.NeutralModeValue;
 import com.ctre.phoenix6.signals.StaticFeedforwardSignValue;
 import frc.lib.generic.OdometryThread;
+import frc.lib.generic.SignalQueue;
+import frc.lib.generic.hardware.PhoenixSignalRegistry;
 import frc.lib.generic.hardware.motor.*;
 
-import java.util.*;
 import java.util.function.DoubleSupplier;
 
 import static frc.lib.generic.hardware.motor.MotorProperties.GravityType.ARM;
+import static frc.robot.GlobalConstants.*;
 
 public class GenericTalonFX extends Motor {
     private final TalonFX talonFX;
 
-    private final Map<String, Queue<Double>> signalQueueList = new HashMap<>();
-
     private final boolean[] signalsToLog = new boolean[MotorInputs.MOTOR_INPUTS_LENGTH];
-    private final StatusSignal<Double> positionSignal, velocitySignal, accelerationSignal, voltageSignal, currentSignal, temperatureSignal, closedLoopTarget;
-    private final List<StatusSignal<Double>> signalsToUpdateList = new ArrayList<>();
+
+    /** The main loop's signals and the odometry thread's queues, indexed by {@link MotorSignal#getId()} */
+    private final StatusSignal<Double>[] signals = createSignalTable();
+    private final SignalQueue[] signalQueues = new SignalQueue[MotorSignal.COUNT];
+    private SignalQueue canTimestampsQueue = null;
 
     private final TalonFXConfiguration talonConfig = new TalonFXConfiguration();
     private final TalonFXConfigurator talonConfigurator;
@@ -52,47 +54,38 @@ public class GenericTalonFX extends Motor {
 
         talonConfigurator = talonFX.getConfigurator();
 
-        positionSignal = talonFX.getPosition().clone();
-        velocitySignal = talonFX.getVelocity().clone();
-        accelerationSignal = talonFX.getAcceleration().clone();
-        voltageSignal = talonFX.getMotorVoltage().clone();
-        currentSignal = talonFX.getStatorCurrent().clone();
-        temperatureSignal = talonFX.getDeviceTemp().clone();
-        closedLoopTarget = talonFX.getClosedLoopReference().clone();
+        signals[MotorSignal.POSITION.getId()] = talonFX.getPosition().clone();
+        signals[MotorSignal.VELOCITY.getId()] = talonFX.getVelocity().clone();
+        signals[MotorSignal.ACCELERATION.getId()] = talonFX.getAcceleration().clone();
+        signals[MotorSignal.VOLTAGE.getId()] = talonFX.getMotorVoltage().clone();
+        signals[MotorSignal.CURRENT.getId()] = talonFX.getStatorCurrent().clone();
+        signals[MotorSignal.TEMPERATURE.getId()] = talonFX.getDeviceTemp().clone();
+        signals[MotorSignal.CLOSED_LOOP_TARGET.getId()] = talonFX.getClosedLoopReference().clone();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StatusSignal<Double>[] createSignalTable() {
+        return new StatusSignal[MotorSignal.COUNT];
     }
 
     @Override
     public void setOutput(MotorProperties.ControlMode mode, double output) {
-        switch (mode) {
-            case PERCENTAGE_OUTPUT -> talonFX.setControl(dutyCycleRequest.withOutput(output));
-            case VOLTAGE -> talonFX.setControl(voltageRequest.withOutput(output));
-
-            case POSITION -> {
-                if (shouldUseProfile) {
-                    talonFX.setControl(positionMMRequest.withPosition(output).withSlot(slotToUse));
-                } else {
-                    talonFX.setControl(positionVoltageRequest.withPosition(output).withSlot(slotToUse));
-                }
-            }
-
-            case VELOCITY -> {
-                if (shouldUseProfile) {
-                    talonFX.setControl(velocityMMRequest.withVelocity(output).withSlot(slotToUse));
-                } else {
-                    talonFX.setControl(velocityVoltageRequest.withVelocity(output).withSlot(slotToUse));
-                }
-            }
-
-            case CURRENT -> new UnsupportedOperationException("CTRE LOVES money and wants $150!!! dollars for this.. wtf.").printStackTrace();
-        }
+        setOutput(mode, output, 0);
     }
 
     @Override
     public void setOutput(MotorProperties.ControlMode mode, double output, double feedforward) {
-        if (mode != MotorProperties.ControlMode.POSITION && mode != MotorProperties.ControlMode.VELOCITY)
-            setOutput(mode, output);
+        if (mode == MotorProperties.ControlMode.CURRENT) {
+            new UnsupportedOperationException("CTRE LOVES money and wants $150!!! dollars for this.. wtf.").printStackTrace();
+            return;
+        }
+
+        if (!shouldSendRequest(mode, slotToUse, output, feedforward)) return;
 
         switch (mode) {
+            case PERCENTAGE_OUTPUT -> talonFX.setControl(dutyCycleRequest.withOutput(output));
+            case VOLTAGE -> talonFX.setControl(voltageRequest.withOutput(output));
+
             case POSITION -> {
                 if (shouldUseProfile) {
                     talonFX.setControl(positionMMRequest.withPosition(output).withSlot(slotToUse).withFeedForward(feedforward));
@@ -119,6 +112,7 @@ public class GenericTalonFX extends Motor {
 
     @Override
     public void stopMotor() {
+        invalidateLastRequest();
         talonFX.stopMotor();
     }
 
@@ -149,12 +143,14 @@ public class GenericTalonFX extends Motor {
 
     @Override
     public void setFollowerOf(String name, int masterPort) {
+        invalidateLastRequest();
         talonFX.setControl(new StrictFollower(masterPort)); //check if this should be called 10 times or once is enough
     }
 
     @Override
     public boolean configure(MotorConfiguration configuration) {
         this.currentConfiguration = configuration;
+        invalidateLastRequest();
 
         talonConfig.MotorOutput.Inverted = configuration.inverted ? InvertedValue.Clockwise_Positive : InvertedValue.CounterClockwise_Positive;
         talonConfig.MotorOutput.NeutralMode = configuration.idleMode.equals(MotorProperties.IdleMode.BRAKE) ? NeutralModeValue.Brake : NeutralModeValue.Coast;
@@ -275,48 +271,77 @@ public class GenericTalonFX extends Motor {
 
     @Override
     public void setupSignalUpdates(MotorSignal signal, boolean useFasterThread) {
-        final int updateFrequency = useFasterThread ? 200 : 50;
+        final double updateFrequency = useFasterThread ? getFasterThreadFrequency() : 50;
 
         signalsToLog[signal.getId()] = true;
-
-        switch (signal) {
-            case VELOCITY -> setupSignal(velocitySignal, updateFrequency);
-            case POSITION -> setupSignal(positionSignal, updateFrequency);
-            case ACCELERATION -> setupSignal(accelerationSignal, updateFrequency);
-            case VOLTAGE -> setupSignal(voltageSignal, updateFrequency);
-            case CURRENT -> setupSignal(currentSignal, updateFrequency);
-            case TEMPERATURE -> setupSignal(temperatureSignal, updateFrequency);
-            case CLOSED_LOOP_TARGET -> setupSignal(closedLoopTarget, updateFrequency);
-        }
+        setupSignal(signals[signal.getId()], updateFrequency);
 
         if (!useFasterThread) return;
 
         signalsToLog[signal.getId() + MotorInputs.MOTOR_INPUTS_LENGTH / 2] = true;
 
         switch (signal) {
-            case VELOCITY -> signalQueueList.put("velocity", OdometryThread.getInstance().registerSignal(this::getSystemVelocityPrivate));
-            case POSITION -> signalQueueList.put("position", OdometryThread.getInstance().registerSignal(this::getSystemPositionPrivate));
-            case ACCELERATION -> signalQueueList.put("acceleration", OdometryThread.getInstance().registerSignal(this::getSystemAccelerationPrivate));
-            case VOLTAGE -> signalQueueList.put("voltage", OdometryThread.getInstance().registerSignal(this::getVoltagePrivate));
-            case CURRENT -> signalQueueList.put("current", OdometryThread.getInstance().registerSignal(this::getCurrentPrivate));
-            case TEMPERATURE -> signalQueueList.put("temperature", OdometryThread.getInstance().registerSignal(this::getTemperaturePrivate));
-            case CLOSED_LOOP_TARGET -> signalQueueList.put("target", OdometryThread.getInstance().registerSignal(this::getClosedLoopTargetPrivate));
+            case VELOCITY -> signalQueues[signal.getId()] = registerLatencyCompensatedSignal(signals[signal.getId()], signals[MotorSignal.ACCELERATION.getId()]);
+            case POSITION -> {
+                final OdometryThread.PhoenixSignalQueues positionQueues = registerTimestampedSignal(signals[signal.getId()], signals[MotorSignal.VELOCITY.getId()]);
+
+                signalQueues[signal.getId()] = positionQueues.values();
+                canTimestampsQueue = positionQueues.canTimestamps();
+            }
+            default -> signalQueues[signal.getId()] = registerThreadedSignal(signals[signal.getId()]);
         }
     }
 
+    private double getFasterThreadFrequency() {
+        return USE_PHOENIX_SYNCHRONOUS_ODOMETRY ? PHOENIX_ODOMETRY_FREQUENCY_HERTZ : ODOMETRY_FREQUENCY_HERTZ;
+    }
+
+    /**
+     * Lets the odometry thread refresh a dedicated clone of the signal on every tick,
+     * rather than re-sampling the main loop's copy, which only changes once per loop.
+     */
+    private SignalQueue registerThreadedSignal(StatusSignal<Double> signal) {
+        return OdometryThread.getInstance().registerSignal(signal.clone(), getBus(), getName());
+    }
+
+    /**
+     * Like {@link #registerThreadedSignal(StatusSignal)}, but every sample is latency compensated with the slope,
+     * so it's correct for the moment it was sampled rather than the moment its CAN frame was sent.
+     */
+    private SignalQueue registerLatencyCompensatedSignal(StatusSignal<Double> signal, StatusSignal<Double> slope) {
+        return OdometryThread.getInstance().registerLatencyCompensatedSignal(signal.clone(), cloneSlope(slope), getBus(), getName());
+    }
+
+    /**
+     * Like {@link #registerLatencyCompensatedSignal(StatusSignal, StatusSignal)}, and the CAN timestamp of every sample is recorded as well.
+     */
+    private OdometryThread.PhoenixSignalQueues registerTimestampedSignal(StatusSignal<Double> signal, StatusSignal<Double> slope) {
+        return OdometryThread.getInstance().registerTimestampedSignal(signal.clone(), cloneSlope(slope), getBus(), getName());
+    }
+
+    private StatusSignal<Double> cloneSlope(StatusSignal<Double> slope) {
+        final StatusSignal<Double> slopeClone = slope.clone();
+        slopeClone.setUpdateFrequency(getFasterThreadFrequency());
+
+        return slopeClone;
+    }
+
     @Override
     protected boolean[] getSignalsToLog() {
         return signalsToLog;
     }
 
+    @Override
+    public String getBus() {
+        return talonFX.getNetwork();
+    }
+
     @Override
     protected void refreshInputs(MotorInputs inputs) {
         if (talonFX == null) return;
 
         inputs.setSignalsToLog(signalsToLog);
 
-        BaseStatusSignal.refreshAll(signalsToUpdateList.toArray(new BaseStatusSignal[0]));
-
         inputs.voltage = getVoltagePrivate();
         inputs.current = getCurrentPrivate();
         inputs.temperature = getTemperaturePrivate();
@@ -325,37 +350,37 @@ public class GenericTalonFX extends Motor {
         inputs.systemVelocity = getSystemVelocityPrivate();
         inputs.systemAcceleration = getSystemAccelerationPrivate();
 
-        MotorUtilities.handleThreadedInputs(inputs, signalQueueList);
+        MotorUtilities.handleThreadedInputs(inputs, signalQueues, canTimestampsQueue);
     }
 
     private double getSystemPositionPrivate() {
-        return positionSignal.getValue();
+        return signals[MotorSignal.POSITION.getId()].getValue();
     }
 
     private double getSystemVelocityPrivate() {
-        return velocitySignal.getValue();
+        return signals[MotorSignal.VELOCITY.getId()].getValue();
     }
 
-    private double getSystemAccelerationPrivate() { return accelerationSignal.getValue(); }
+    private double getSystemAccelerationPrivate() { return signals[MotorSignal.ACCELERATION.getId()].getValue(); }
 
     private double getVoltagePrivate() {
-        return voltageSignal.getValue();
+        return signals[MotorSignal.VOLTAGE.getId()].getValue();
     }
 
     private double getClosedLoopTargetPrivate() {
-        return closedLoopTarget.getValue();
+        return signals[MotorSignal.CLOSED_LOOP_TARGET.getId()].getValue();
     }
 
     private double getTemperaturePrivate() {
-        return temperatureSignal.getValue();
+        return signals[MotorSignal.TEMPERATURE.getId()].getValue();
     }
 
     private double getCurrentPrivate() {
-        return currentSignal.getValue();
+        return signals[MotorSignal.CURRENT.getId()].getValue();
     }
 
-    private void setupSignal(final StatusSignal<Double> correspondingSignal, final int updateFrequency) {
-        signalsToUpdateList.add(correspondingSignal);
+    private void setupSignal(final StatusSignal<Double> correspondingSignal, final double updateFrequency) {
+        PhoenixSignalRegistry.register(getBus(), correspondingSignal);
         correspondingSignal.setUpdateFrequency(updateFrequency);
     }
 }
@@ -1,29 +1,29 @@
 package frc.lib.generic.hardware.motor.hardware;
 
+import frc.lib.generic.SignalQueue;
+import frc.lib.generic.advantagekit.SampleBuffer;
 import frc.lib.generic.hardware.motor.MotorInputs;
-
-import java.util.Map;
-import java.util.Queue;
+import frc.lib.generic.hardware.motor.MotorSignal;
 
 public class MotorUtilities {
-    public static void handleThreadedInputs(MotorInputs inputs, Map<String, Queue<Double>> signalQueueList) {
-        if (signalQueueList.isEmpty()) return;
-
-        if (signalQueueList.get("position") != null)
-            inputs.threadSystemPosition = signalQueueList.get("position").stream().mapToDouble(Double::doubleValue).toArray();
-        if (signalQueueList.get("velocity") != null)
-            inputs.threadSystemVelocity = signalQueueList.get("velocity").stream().mapToDouble(Double::doubleValue).toArray();
-        if (signalQueueList.get("acceleration") != null)
-            inputs.threadSystemAcceleration = signalQueueList.get("acceleration").stream().mapToDouble(Double::doubleValue).toArray();
-        if (signalQueueList.get("voltage") != null)
-            inputs.threadVoltage = signalQueueList.get("voltage").stream().mapToDouble(Double::doubleValue).toArray();
-        if (signalQueueList.get("current") != null)
-            inputs.threadCurrent = signalQueueList.get("current").stream().mapToDouble(Double::doubleValue).toArray();
-        if (signalQueueList.get("temperature") != null)
-            inputs.threadTemperature = signalQueueList.get("temperature").stream().mapToDouble(Double::doubleValue).toArray();
-        if (signalQueueList.get("target") != null)
-            inputs.threadTarget = signalQueueList.get("target").stream().mapToDouble(Double::doubleValue).toArray();
+    /**
+     * Drains the queues of the threaded signals into the inputs.
+     *
+     * @param signalQueues       the queue of each signal, indexed by {@link MotorSignal#getId()}. Null for signals that aren't threaded
+     * @param canTimestampsQueue the CAN timestamps of the position samples, or null if the device doesn't report them
+     */
+    public static void handleThreadedInputs(MotorInputs inputs, SignalQueue[] signalQueues, SignalQueue canTimestampsQueue) {
+        drain(inputs.threadSystemPosition, signalQueues[MotorSignal.POSITION.getId()]);
+        drain(inputs.threadCanTimestamps, canTimestampsQueue);
+        drain(inputs.threadSystemVelocity, signalQueues[MotorSignal.VELOCITY.getId()]);
+        drain(inputs.threadSystemAcceleration, signalQueues[MotorSignal.ACCELERATION.getId()]);
+        drain(inputs.threadVoltage, signalQueues[MotorSignal.VOLTAGE.getId()]);
+        drain(inputs.threadCurrent, signalQueues[MotorSignal.CURRENT.getId()]);
+        drain(inputs.threadTemperature, signalQueues[MotorSignal.TEMPERATURE.getId()]);
+        drain(inputs.threadTarget, signalQueues[MotorSignal.CLOSED_LOOP_TARGET.getId()]);
+    }
 
-        signalQueueList.forEach((k, v) -> v.clear());
+    private static void drain(SampleBuffer buffer, SignalQueue queue) {
+        if (queue != null) buffer.drainFrom(queue);
     }
 }
@@ -97,12 +97,12 @@ public class SimulatedMotor extends Motor {
         inputs.systemVelocity = simulation.getVelocityRotationsPerSecond();
         inputs.systemAcceleration = simulation.getAccelerationRotationsPerSecondSquared();
 
-        inputs.threadVoltage = new double[]{inputs.voltage};
-        inputs.threadCurrent = new double[]{inputs.current};
-        inputs.threadTemperature = new double[]{inputs.temperature};
-        inputs.threadTarget = new double[]{inputs.target};
-        inputs.threadSystemPosition = new double[]{inputs.systemPosition};
-        inputs.threadSystemVelocity = new double[]{inputs.systemVelocity};
-        inputs.threadSystemAcceleration = new double[]{inputs.systemAcceleration};
+        inputs.threadVoltage.set(inputs.voltage);
+        inputs.threadCurrent.set(inputs.current);
+        inputs.threadTemperature.set(inputs.temperature);
+        inputs.threadTarget.set(inputs.target);
+        inputs.threadSystemPosition.set(inputs.systemPosition);
+        inputs.threadSystemVelocity.set(inputs.systemVelocity);
+        inputs.threadSystemAcceleration.set(inputs.systemAcceleration);
     }
 }
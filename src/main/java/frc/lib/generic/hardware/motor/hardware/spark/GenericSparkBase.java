@@ -7,8 +7,11 @@ import com.revrobotics.REVLibError;
 import com.revrobotics.RelativeEncoder;
 import com.revrobotics.SparkPIDController;
 import edu.wpi.first.math.trajectory.TrapezoidProfile;
+import edu.wpi.first.wpilibj.DriverStation;
+import frc.lib.generic.ControlThread;
 import frc.lib.generic.Feedforward;
 import frc.lib.generic.OdometryThread;
+import frc.lib.generic.SignalQueue;
 import frc.lib.generic.hardware.motor.Motor;
 import frc.lib.generic.hardware.motor.MotorConfiguration;
 import frc.lib.generic.hardware.motor.MotorInputs;
@@ -21,15 +24,19 @@ import frc.lib.scurve.OutputParameter;
 import frc.lib.scurve.SCurveGenerator;
 import org.littletonrobotics.junction.Logger;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Queue;
 import java.util.function.DoubleSupplier;
 
 import static frc.lib.generic.hardware.motor.MotorInputs.MOTOR_INPUTS_LENGTH;
+import static frc.robot.GlobalConstants.ROBOT_PERIODIC_LOOP_TIME;
 
 //todo: possible problem when doing PID only velocity control.
 public abstract class GenericSparkBase extends Motor {
+    /**
+     * The step the Smart Motion arbitrary feedforward is rounded to. Gravity feedforward follows the measured position,
+     * so without rounding every loop's request would differ slightly from the last one and be re-sent.
+     */
+    private static final double SMART_MOTION_FEEDFORWARD_RESOLUTION_VOLTS = 0.05;
+
     private SparkCommon.MotionType motionType;
 
     private final CANSparkBase spark;
@@ -38,7 +45,8 @@ public abstract class GenericSparkBase extends Motor {
     private final int deviceId;
 
     private final boolean[] signalsToLog = new boolean[MOTOR_INPUTS_LENGTH];
-    private final Map<String, Queue<Double>> signalQueueList = new HashMap<>();
+    /** The odometry thread's queues, indexed by {@link MotorSignal#getId()} */
+    private final SignalQueue[] signalQueues = new SignalQueue[MotorSignal.COUNT];
 
     private DoubleSupplier externalPositionSupplier, externalVelocitySupplier;
     private Feedforward.Type feedforward;
@@ -51,6 +59,12 @@ public abstract class GenericSparkBase extends Motor {
 
     private boolean hasStoppedOccurred = false;
 
+    /** Whether the {@link ControlThread} should keep stepping the profile towards the goal */
+    private boolean isFollowingProfile = false;
+    /** Whether the robot was disabled on the {@link ControlThread}'s previous tick, so the profile must restart before stepping */
+    private boolean wasDisabled = false;
+    private boolean isRegisteredToControlThread = false;
+
     private MotorConfiguration currentConfiguration;
 
     private int slotToUse = 0;
@@ -83,22 +97,44 @@ public abstract class GenericSparkBase extends Motor {
         setOutput(controlMode, output, 0);
     }
 
+    /**
+     * When the profile is stepped by the {@link ControlThread}, a {@link MotorProperties.ControlMode#POSITION POSITION}
+     * or {@link MotorProperties.ControlMode#VELOCITY VELOCITY} output only updates the goal.
+     */
     @Override
-    public void setOutput(MotorProperties.ControlMode mode, double output, double feedforward) {
+    public synchronized void setOutput(MotorProperties.ControlMode mode, double output, double feedforward) {
         setNewGoal(output);
 
+        isFollowingProfile = isSteppedByControlThread()
+                && (mode == MotorProperties.ControlMode.POSITION || mode == MotorProperties.ControlMode.VELOCITY);
+
+        if (isFollowingProfile) return;
+
         switch (mode) {
-            case PERCENTAGE_OUTPUT -> sparkController.setReference(output, CANSparkBase.ControlType.kDutyCycle);
+            case PERCENTAGE_OUTPUT -> setReference(output, CANSparkBase.ControlType.kDutyCycle, 0, 0);
             case POSITION, VELOCITY ->
-                    handleSmoothMotion(motionType, goalState, motionProfile, this.feedforward, slotToUse);
-            case VOLTAGE -> sparkController.setReference(output, CANSparkBase.ControlType.kVoltage, slotToUse, 0);
-            case CURRENT -> sparkController.setReference(output, CANSparkBase.ControlType.kCurrent, slotToUse, 0);
+                    handleSmoothMotion(motionType, goalState, motionProfile, this.feedforward, slotToUse, getControlPeriodSeconds());
+            case VOLTAGE -> setReference(output, CANSparkBase.ControlType.kVoltage, slotToUse, 0);
+            case CURRENT -> setReference(output, CANSparkBase.ControlType.kCurrent, slotToUse, 0);
         }
     }
 
+    /**
+     * Sends a setpoint to the Spark's controller, unless it repeats the last one sent (see {@link #shouldSendRequest(Enum, int, double, double)}).
+     *
+     * @param arbitraryFeedforward the feedforward to add to the controller's output, in volts
+     */
+    protected void setReference(double value, CANSparkBase.ControlType controlType, int slot, double arbitraryFeedforward) {
+        if (!shouldSendRequest(controlType, slot, value, arbitraryFeedforward)) return;
+
+        sparkController.setReference(value, controlType, slot, arbitraryFeedforward, SparkPIDController.ArbFFUnits.kVoltage);
+    }
+
     @Override
-    public boolean configure(MotorConfiguration configuration) {
+    public synchronized boolean configure(MotorConfiguration configuration) {
         currentConfiguration = configuration;
+        invalidateLastRequest();
+        isFollowingProfile = false;
 
         slotToUse = configuration.slotToUse;
 
@@ -120,9 +156,51 @@ public abstract class GenericSparkBase extends Motor {
         configurePID(configuration);
         configureExtras(configuration);
 
+        if (isSteppedByControlThread() && !isRegisteredToControlThread) {
+            ControlThread.getInstance().register(this::stepProfile);
+            isRegisteredToControlThread = true;
+        }
+
         return spark.burnFlash() == REVLibError.kOk;
     }
 
+    /**
+     * Called by the {@link ControlThread} on every tick, while a goal is set.
+     * The profile doesn't advance while the robot is disabled, and restarts from the measured state once it's enabled again -
+     * otherwise it would reach the goal while disabled, and the mechanism would jump to it on enable.
+     */
+    private synchronized void stepProfile(double periodSeconds) {
+        if (!isFollowingProfile) return;
+
+        if (DriverStation.isDisabled()) {
+            wasDisabled = true;
+            return;
+        }
+
+        if (wasDisabled) {
+            wasDisabled = false;
+            resetProfile(goalState.position);
+        }
+
+        handleSmoothMotion(motionType, goalState, motionProfile, feedforward, slotToUse, periodSeconds);
+    }
+
+    /**
+     * @return the time between steps of the roboRIO-side control, depending on whether the {@link ControlThread} or the main loop steps it
+     */
+    protected double getControlPeriodSeconds() {
+        return isSteppedByControlThread() ? ControlThread.getPeriodSeconds() : ROBOT_PERIODIC_LOOP_TIME;
+    }
+
+    /**
+     * @return whether the profile runs on the roboRIO and is stepped by the {@link ControlThread}, rather than by {@link #setOutput}
+     */
+    private boolean isSteppedByControlThread() {
+        return ControlThread.isEnabled() && (motionType == SparkCommon.MotionType.POSITION_TRAPEZOIDAL
+                || motionType == SparkCommon.MotionType.VELOCITY_TRAPEZOIDAL
+                || motionType == SparkCommon.MotionType.POSITION_S_CURVE);
+    }
+
     @Override
     public MotorConfiguration getCurrentConfiguration() {
         return currentConfiguration;
@@ -130,13 +208,16 @@ public abstract class GenericSparkBase extends Motor {
 
     @Override
     public void setFollowerOf(String name, int masterPort) {
+        invalidateLastRequest();
         spark.follow(new CANSparkMax(masterPort, CANSparkLowLevel.MotorType.kBrushless));
         spark.setPeriodicFramePeriod(CANSparkLowLevel.PeriodicFrame.kStatus0, 10);
     }
 
     @Override
-    public void stopMotor() {
+    public synchronized void stopMotor() {
         hasStoppedOccurred = true;
+        isFollowingProfile = false;
+        invalidateLastRequest();
         spark.stopMotor();
     }
 
@@ -160,6 +241,15 @@ public abstract class GenericSparkBase extends Motor {
         if (hasNoNewGoal(new TrapezoidProfile.State(goal, 0))) return;
 
         hasStoppedOccurred = false;
+        resetProfile(goal);
+
+        goalState = new TrapezoidProfile.State(goal, 0);
+    }
+
+    /**
+     * Restarts the profile (and the roboRIO-side feedback) from the measured state of the mechanism.
+     */
+    private void resetProfile(double goal) {
         setNewGoalExtras();
 
         if (motionType == SparkCommon.MotionType.POSITION_TRAPEZOIDAL) {
@@ -176,8 +266,6 @@ public abstract class GenericSparkBase extends Motor {
 
             setSCurveOutputs(new OutputParameter());
         }
-
-        goalState = new TrapezoidProfile.State(goal, 0);
     }
 
     /**
@@ -200,22 +288,15 @@ public abstract class GenericSparkBase extends Motor {
 
         signalsToLog[signal.getId() + MOTOR_INPUTS_LENGTH / 2] = true;
 
-        switch (signal) {
-            case POSITION ->
-                    signalQueueList.put("position", OdometryThread.getInstance().registerSignal(this::getSystemPositionPrivate));
-            case VELOCITY ->
-                    signalQueueList.put("velocity", OdometryThread.getInstance().registerSignal(this::getSystemVelocityPrivate));
-            case CURRENT ->
-                    signalQueueList.put("current", OdometryThread.getInstance().registerSignal(spark::getOutputCurrent));
-            case VOLTAGE ->
-                    signalQueueList.put("voltage", OdometryThread.getInstance().registerSignal(this::getVoltagePrivate));
-            case TEMPERATURE ->
-                    signalQueueList.put("temperature", OdometryThread.getInstance().registerSignal(spark::getMotorTemperature));
-            case CLOSED_LOOP_TARGET ->
-                    signalQueueList.put("target", OdometryThread.getInstance().registerSignal(() -> goalState.position));
-            case ACCELERATION ->
-                    signalQueueList.put("acceleration", OdometryThread.getInstance().registerSignal(this::getEffectiveAcceleration));
-        }
+        signalQueues[signal.getId()] = switch (signal) {
+            case POSITION -> OdometryThread.getInstance().registerSignal(this::getSystemPositionPrivate);
+            case VELOCITY -> OdometryThread.getInstance().registerSignal(this::getSystemVelocityPrivate);
+            case CURRENT -> OdometryThread.getInstance().registerSignal(spark::getOutputCurrent);
+            case VOLTAGE -> OdometryThread.getInstance().registerSignal(this::getVoltagePrivate);
+            case TEMPERATURE -> OdometryThread.getInstance().registerSignal(spark::getMotorTemperature);
+            case CLOSED_LOOP_TARGET -> OdometryThread.getInstance().registerSignal(() -> goalState.position);
+            case ACCELERATION -> OdometryThread.getInstance().registerSignal(this::getEffectiveAcceleration);
+        };
     }
 
     @Override
@@ -239,7 +320,7 @@ public abstract class GenericSparkBase extends Motor {
         if (signalsToLog[5]) inputs.systemVelocity = getEffectiveVelocity();
         if (signalsToLog[6]) inputs.systemAcceleration = getEffectiveAcceleration();
 
-        MotorUtilities.handleThreadedInputs(inputs, signalQueueList);
+        MotorUtilities.handleThreadedInputs(inputs, signalQueues, null);
     }
 
     private double getVoltagePrivate() {
@@ -273,12 +354,16 @@ public abstract class GenericSparkBase extends Motor {
     private void configureProfile(MotorConfiguration configuration) {
         if (configuration.profiledMaxVelocity != 0 && configuration.profiledTargetAcceleration != 0) {
             if (configuration.profiledJerk != 0) {
-                scurveGenerator = new SCurveGenerator(0.02,
+                motionType = SparkCommon.MotionType.POSITION_S_CURVE;
+
+                scurveGenerator = new SCurveGenerator(getControlPeriodSeconds(),
                         configuration.profiledMaxVelocity,
                         configuration.profiledTargetAcceleration,
                         configuration.profiledJerk);
+            } else if (configuration.useOnboardProfile) {
+                configureSmartMotion(configuration);
 
-                motionType = SparkCommon.MotionType.POSITION_S_CURVE;
+                motionType = SparkCommon.MotionType.POSITION_SMART_MOTION;
             } else {
                 motionProfile = new TrapezoidProfile(
                         new TrapezoidProfile.Constraints(
@@ -305,6 +390,54 @@ public abstract class GenericSparkBase extends Motor {
         }
     }
 
+    /**
+     * Explanation here: <a href="https://docs.revrobotics.com/brushless/spark-max/control-interfaces#smart-motion">REV DOCS</a>
+     * The velocity feedforward runs on the Spark with the profile, and the rest is added by {@link #calculateSmartMotionFeedforward(Feedforward.Type, double)}.
+     */
+    private void configureSmartMotion(MotorConfiguration configuration) {
+        final double unitsPerRotation = getEncoderUnitsPerSystemRotation();
+
+        sparkController.setSmartMotionAccelStrategy(SparkPIDController.AccelStrategy.kTrapezoidal, slotToUse);
+        sparkController.setSmartMotionMaxVelocity(configuration.profiledMaxVelocity * unitsPerRotation * Conversions.SEC_PER_MIN, slotToUse);
+        sparkController.setSmartMotionMaxAccel(configuration.profiledTargetAcceleration * unitsPerRotation * Conversions.SEC_PER_MIN, slotToUse);
+        sparkController.setSmartMotionMinOutputVelocity(0, slotToUse);
+        sparkController.setSmartMotionAllowedClosedLoopError(configuration.closedLoopTolerance * unitsPerRotation, slotToUse);
+
+        // kV is in volts per system rps, the Spark's FF is in duty cycle (of the 12V compensated output) per encoder RPM
+        sparkController.setFF(getCurrentSlot().kV() / 12 / Conversions.SEC_PER_MIN / unitsPerRotation, slotToUse);
+    }
+
+    /**
+     * The Spark only adds velocity feedforward to its onboard profile, so gravity and static friction are sent as arbitrary feedforward.
+     * The static friction is applied towards the goal, until the mechanism is within {@link MotorConfiguration#closedLoopTolerance}.
+     * The result is rounded to {@link #SMART_MOTION_FEEDFORWARD_RESOLUTION_VOLTS}, so a held goal isn't re-sent every loop.
+     *
+     * @return the arbitrary feedforward to send with the Smart Motion goal, in volts
+     */
+    protected double calculateSmartMotionFeedforward(Feedforward.Type feedforward, double goalPosition) {
+        final double position = getEffectivePosition();
+        final double error = goalPosition - position;
+        final double direction = Math.abs(error) <= currentConfiguration.closedLoopTolerance ? 0 : Math.signum(error);
+        final double feedforwardVoltage = feedforward.calculate(position, 0, 0) + feedforward.konstants.kS() * direction;
+
+        return Math.round(feedforwardVoltage / SMART_MOTION_FEEDFORWARD_RESOLUTION_VOLTS) * SMART_MOTION_FEEDFORWARD_RESOLUTION_VOLTS;
+    }
+
+    /**
+     * Lets the Spark's onboard PID take the shortest way around a continuous mechanism, like {@link frc.lib.generic.PID#enableContinuousInput} does on the roboRIO.
+     * The range is half a system rotation either way, in the Spark's encoder units.
+     */
+    protected void configureOnboardWrapping(MotorConfiguration configuration) {
+        sparkController.setPositionPIDWrappingEnabled(configuration.closedLoopContinuousWrap);
+
+        if (!configuration.closedLoopContinuousWrap) return;
+
+        final double halfRotation = 0.5 * getEncoderUnitsPerSystemRotation();
+
+        sparkController.setPositionPIDWrappingMinInput(-halfRotation);
+        sparkController.setPositionPIDWrappingMaxInput(halfRotation);
+    }
+
     private boolean hasNoNewGoal(TrapezoidProfile.State newGoal) {
         return goalState != null
                 && goalState.equals(newGoal)
@@ -324,6 +457,11 @@ public abstract class GenericSparkBase extends Motor {
 
     protected abstract RelativeEncoder getEncoder();
 
+    /**
+     * @return how many of the encoder's units, which the Spark's onboard controller works in, make up one system rotation
+     */
+    protected abstract double getEncoderUnitsPerSystemRotation();
+
     protected abstract SparkPIDController getSparkController();
 
     protected abstract void refreshExtras();
@@ -332,7 +470,10 @@ public abstract class GenericSparkBase extends Motor {
 
     protected abstract void configureExtras(MotorConfiguration configuration);
 
-    protected abstract void handleSmoothMotion(SparkCommon.MotionType motionType, TrapezoidProfile.State goalState, TrapezoidProfile motionProfile, Feedforward.Type feedforward, int slotToUse);
+    /**
+     * @param periodSeconds the time until the next step, which the profile is advanced by
+     */
+    protected abstract void handleSmoothMotion(SparkCommon.MotionType motionType, TrapezoidProfile.State goalState, TrapezoidProfile motionProfile, Feedforward.Type feedforward, int slotToUse, double periodSeconds);
 
     protected abstract void configurePID(MotorConfiguration configuration);
 
@@ -55,6 +55,11 @@ public class GenericSparkFlex extends GenericSparkBase {
         return encoder;
     }
 
+    @Override
+    protected double getEncoderUnitsPerSystemRotation() {
+        return 1; // The encoder's conversion factors are set to the gear ratio
+    }
+
     @Override
     protected SparkPIDController getSparkController() {
         if (sparkController == null) sparkController = spark.getPIDController();
@@ -92,56 +97,51 @@ public class GenericSparkFlex extends GenericSparkBase {
         sparkController.setI(configuration.slot2.kI(), 2);
         sparkController.setD(configuration.slot2.kD(), 2);
 
-        sparkController.setPositionPIDWrappingEnabled(configuration.closedLoopContinuousWrap);
+        configureOnboardWrapping(configuration);
         sparkController.setSmartMotionAllowedClosedLoopError(configuration.closedLoopTolerance, configuration.slotToUse);
         //check if works, and if theres a default
     }
 
     protected void handleSmoothMotion(SparkCommon.MotionType motionType,
-                                      TrapezoidProfile.State goalState, TrapezoidProfile motionProfile, Feedforward.Type feedforward, int slotToUse) {
+                                      TrapezoidProfile.State goalState, TrapezoidProfile motionProfile, Feedforward.Type feedforward, int slotToUse, double periodSeconds) {
         if (goalState == null) return;
 
         double feedforwardOutput, acceleration;
 
         switch (motionType) {
             case POSITION_PID -> {
-                sparkController.setReference(goalState.position,
-                        CANSparkBase.ControlType.kPosition, slotToUse,
-                        0,
-                        SparkPIDController.ArbFFUnits.kVoltage);
+                setReference(goalState.position, CANSparkBase.ControlType.kPosition, slotToUse, 0);
             }
 
             case VELOCITY_PID_FF -> {
-                sparkController.setReference(goalState.position * 60,
-                        CANSparkBase.ControlType.kVelocity, slotToUse,
-                        feedforward.calculate(goalState.position, goalState.velocity, 0),
-                        SparkPIDController.ArbFFUnits.kVoltage);
+                setReference(goalState.position * 60, CANSparkBase.ControlType.kVelocity, slotToUse, feedforward.calculate(goalState.position, goalState.velocity, 0));
+            }
+
+            case POSITION_SMART_MOTION -> {
+                setReference(goalState.position, CANSparkBase.ControlType.kSmartMotion, slotToUse,
+                        calculateSmartMotionFeedforward(feedforward, goalState.position));
+
+                lastProfileCalculationTimestamp = Logger.getRealTimestamp();
             }
 
             case POSITION_TRAPEZOIDAL -> {
-                final TrapezoidProfile.State currentSetpoint = motionProfile.calculate(0.02, previousSetpoint, goalState);
+                final TrapezoidProfile.State currentSetpoint = motionProfile.calculate(periodSeconds, previousSetpoint, goalState);
 
-                acceleration = (currentSetpoint.velocity - previousSetpoint.velocity) / 0.02;
+                acceleration = (currentSetpoint.velocity - previousSetpoint.velocity) / periodSeconds;
                 feedforwardOutput = feedforward.calculate(getEffectivePosition(), currentSetpoint.velocity, acceleration);
 
-                sparkController.setReference(currentSetpoint.position,
-                        CANSparkBase.ControlType.kPosition,
-                        slotToUse, feedforwardOutput,
-                        SparkPIDController.ArbFFUnits.kVoltage);
+                setReference(currentSetpoint.position, CANSparkBase.ControlType.kPosition, slotToUse, feedforwardOutput);
 
                 previousSetpoint = currentSetpoint;
                 lastProfileCalculationTimestamp = Logger.getRealTimestamp();
             }
 
             case VELOCITY_TRAPEZOIDAL -> {
-                final TrapezoidProfile.State currentSetpoint = motionProfile.calculate(0.02, previousSetpoint, goalState);
+                final TrapezoidProfile.State currentSetpoint = motionProfile.calculate(periodSeconds, previousSetpoint, goalState);
 
                 feedforwardOutput = feedforward.calculate(0, currentSetpoint.position, currentSetpoint.velocity);
 
-                sparkController.setReference(currentSetpoint.position * 60,
-                        CANSparkBase.ControlType.kVelocity,
-                        slotToUse, feedforwardOutput,
-                        SparkPIDController.ArbFFUnits.kVoltage);
+                setReference(currentSetpoint.position * 60, CANSparkBase.ControlType.kVelocity, slotToUse, feedforwardOutput);
 
 
                 previousSetpoint = currentSetpoint;
@@ -156,10 +156,7 @@ public class GenericSparkFlex extends GenericSparkBase {
 
                 feedforwardOutput = feedforward.calculate(getEffectivePosition(), scurveOutput.new_velocity, scurveOutput.new_acceleration);
 
-                sparkController.setReference(scurveOutput.new_position,
-                        CANSparkBase.ControlType.kPosition,
-                        slotToUse, feedforwardOutput,
-                        SparkPIDController.ArbFFUnits.kVoltage);
+                setReference(scurveOutput.new_position, CANSparkBase.ControlType.kPosition, slotToUse, feedforwardOutput);
 
                 lastProfileCalculationTimestamp = Logger.getRealTimestamp();
             }
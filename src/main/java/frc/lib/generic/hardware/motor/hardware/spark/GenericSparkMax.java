@@ -5,17 +5,22 @@ import edu.wpi.first.math.trajectory.TrapezoidProfile;
 import frc.lib.generic.Feedforward;
 import frc.lib.generic.PID;
 import frc.lib.generic.hardware.motor.MotorConfiguration;
+import frc.lib.generic.hardware.motor.MotorProperties;
 import frc.lib.scurve.InputParameter;
 import frc.lib.scurve.OutputParameter;
 import frc.lib.scurve.UpdateResult;
 import org.littletonrobotics.junction.Logger;
 
+import static frc.robot.GlobalConstants.ROBOT_PERIODIC_LOOP_TIME;
+
 public class GenericSparkMax extends GenericSparkBase {
     private CANSparkBase spark;
     private RelativeEncoder encoder;
     private SparkPIDController sparkController;
 
     private PID feedback;
+    private double latestFeedbackOutput = 0;
+    private int stepsSinceFeedback = 0;
 
     private InputParameter scurveInputs;
     private OutputParameter scurveOutput = new OutputParameter();
@@ -49,6 +54,11 @@ public class GenericSparkMax extends GenericSparkBase {
         return encoder;
     }
 
+    @Override
+    protected double getEncoderUnitsPerSystemRotation() {
+        return getCurrentConfiguration().gearRatio; // The encoder is left in motor rotations
+    }
+
     @Override
     protected SparkPIDController getSparkController() {
         if (sparkController == null) sparkController = spark.getPIDController();
@@ -63,6 +73,7 @@ public class GenericSparkMax extends GenericSparkBase {
     @Override
     protected void setNewGoalExtras() {
         feedback.reset();
+        stepsSinceFeedback = 0;
     }
 
     @Override
@@ -79,42 +90,69 @@ public class GenericSparkMax extends GenericSparkBase {
 
         if (configuration.closedLoopContinuousWrap)
             feedback.enableContinuousInput(-0.5, 0.5);
+
+        if (configuration.useOnboardProfile)
+            configureOnboardPID(configuration);
+    }
+
+    /**
+     * Converts the slot's gains, which are in volts per system rotation for the roboRIO's {@link PID},
+     * to the Spark's units - duty cycle per motor rotation, with the integral and derivative over its 1ms loop.
+     * Continuous wrapping is configured onboard too, as the roboRIO's PID isn't used.
+     */
+    private void configureOnboardPID(MotorConfiguration configuration) {
+        final MotorProperties.Slot slot = getSlot(configuration.slotToUse, configuration);
+        final double gainsConversion = 1 / (12 * configuration.gearRatio);
+
+        sparkController.setP(slot.kP() * gainsConversion, configuration.slotToUse);
+        sparkController.setI(slot.kI() * gainsConversion / 1000, configuration.slotToUse);
+        sparkController.setD(slot.kD() * gainsConversion * 1000, configuration.slotToUse);
+
+        configureOnboardWrapping(configuration);
     }
 
-    protected void handleSmoothMotion(SparkCommon.MotionType motionType, TrapezoidProfile.State goalState, TrapezoidProfile motionProfile, Feedforward.Type feedforward, int slotToUse) {
+    protected void handleSmoothMotion(SparkCommon.MotionType motionType, TrapezoidProfile.State goalState, TrapezoidProfile motionProfile, Feedforward.Type feedforward, int slotToUse, double periodSeconds) {
         if (goalState == null) return;
 
         double feedbackOutput = 0, feedforwardOutput = 0, acceleration;
 
         switch (motionType) {
+            case POSITION_SMART_MOTION -> {
+                setReference(goalState.position * getEncoderUnitsPerSystemRotation(), CANSparkBase.ControlType.kSmartMotion, slotToUse,
+                        calculateSmartMotionFeedforward(feedforward, goalState.position));
+
+                lastProfileCalculationTimestamp = Logger.getRealTimestamp();
+                return;
+            }
+
             case POSITION_TRAPEZOIDAL -> {
-                final TrapezoidProfile.State currentSetpoint = motionProfile.calculate(0.02, previousSetpoint, goalState);
+                final TrapezoidProfile.State currentSetpoint = motionProfile.calculate(periodSeconds, previousSetpoint, goalState);
 
-                acceleration = (currentSetpoint.velocity - previousSetpoint.velocity) / 0.02;
+                acceleration = (currentSetpoint.velocity - previousSetpoint.velocity) / periodSeconds;
 
                 feedforwardOutput = feedforward.calculate(getEffectivePosition(), currentSetpoint.velocity, acceleration);
-                feedbackOutput = feedback.calculate(getEffectivePosition(), currentSetpoint.position);
+                feedbackOutput = calculateFeedback(getEffectivePosition(), currentSetpoint.position);
 
                 previousSetpoint = currentSetpoint;
-                lastProfileCalculationTimestamp = Logger.getTimestamp();
+                lastProfileCalculationTimestamp = Logger.getRealTimestamp();
             }
 
             case VELOCITY_TRAPEZOIDAL -> {
-                final TrapezoidProfile.State currentSetpoint = motionProfile.calculate(0.02, previousSetpoint, goalState);
+                final TrapezoidProfile.State currentSetpoint = motionProfile.calculate(periodSeconds, previousSetpoint, goalState);
 
                 feedforwardOutput = feedforward.calculate(currentSetpoint.position, currentSetpoint.velocity);
-                feedbackOutput = this.feedback.calculate(getEffectiveVelocity(), currentSetpoint.position);
+                feedbackOutput = calculateFeedback(getEffectiveVelocity(), currentSetpoint.position);
 
                 previousSetpoint = currentSetpoint;
-                lastProfileCalculationTimestamp = Logger.getTimestamp();
+                lastProfileCalculationTimestamp = Logger.getRealTimestamp();
             }
 
             case VELOCITY_PID_FF -> {
                 feedforwardOutput = feedforward.calculate(goalState.position, goalState.velocity);
-                feedbackOutput = this.feedback.calculate(getEffectiveVelocity(), goalState.position);
+                feedbackOutput = calculateFeedback(getEffectiveVelocity(), goalState.position);
             }
 
-            case POSITION_PID -> feedbackOutput = this.feedback.calculate(getEffectivePosition(), goalState.position);
+            case POSITION_PID -> feedbackOutput = calculateFeedback(getEffectivePosition(), goalState.position);
 
             case POSITION_S_CURVE -> {
                 final UpdateResult result = getSCurveGenerator().update(scurveInputs, scurveOutput);
@@ -123,11 +161,25 @@ public class GenericSparkMax extends GenericSparkBase {
                 scurveOutput = result.output_parameter;
 
                 feedforwardOutput = feedforward.calculate(getEffectivePosition(), scurveOutput.new_velocity, scurveOutput.new_acceleration);
-                feedbackOutput = feedback.calculate(getEffectivePosition(), scurveOutput.new_position);
+                feedbackOutput = calculateFeedback(getEffectivePosition(), scurveOutput.new_position);
             }
         }
 
-        sparkController.setReference(feedforwardOutput + feedbackOutput, CANSparkBase.ControlType.kVoltage);
+        setReference(feedforwardOutput + feedbackOutput, CANSparkBase.ControlType.kVoltage, 0, 0);
+    }
+
+    /**
+     * The measurements only update once per main loop (or Spark status frame), so the feedback is only recalculated at that rate,
+     * even when the {@link frc.lib.generic.ControlThread} steps the profile faster.
+     * Otherwise the derivative would see no change for a few steps, and then a jump.
+     */
+    private double calculateFeedback(double measurement, double setpoint) {
+        final int stepsPerFeedback = Math.max(1, (int) Math.round(ROBOT_PERIODIC_LOOP_TIME / getControlPeriodSeconds()));
+
+        if (stepsSinceFeedback++ % stepsPerFeedback == 0)
+            latestFeedbackOutput = feedback.calculate(measurement, setpoint);
+
+        return latestFeedbackOutput;
     }
 
     @Override
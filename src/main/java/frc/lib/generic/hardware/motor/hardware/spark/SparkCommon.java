@@ -10,7 +10,7 @@ public class SparkCommon {
     }
 
     public enum MotionType {
-        POSITION_PID, POSITION_S_CURVE, POSITION_TRAPEZOIDAL, VELOCITY_PID_FF, VELOCITY_TRAPEZOIDAL
+        POSITION_PID, POSITION_S_CURVE, POSITION_TRAPEZOIDAL, POSITION_SMART_MOTION, VELOCITY_PID_FF, VELOCITY_TRAPEZOIDAL
     }
 
     /**
@@ -2,6 +2,8 @@ package frc.lib.generic.hardware.pigeon;
 
 import frc.lib.generic.hardware.HardwareManager;
 import frc.lib.generic.advantagekit.LoggableHardware;
+import frc.lib.generic.advantagekit.LoggingPolicy;
+import frc.lib.generic.advantagekit.MatchPhase;
 import frc.lib.generic.hardware.motor.MotorSignal;
 import org.littletonrobotics.junction.Logger;
 
@@ -29,11 +31,34 @@ public class Pigeon implements LoggableHardware {
 
     public void setupSignalUpdates(PigeonSignal signal) { setupSignalUpdates(signal, false); }
 
+    /**
+     * Choose how often a signal (and its faster thread counterpart) is written to the log, in every match phase.
+     * Signals are logged every loop by default.
+     */
+    public void setLoggingPolicy(PigeonSignal signal, LoggingPolicy policy) {
+        inputs.getLogFilter().setPolicy(signal.getId(), policy);
+    }
+
+    /**
+     * Choose how often a signal (and its faster thread counterpart) is written to the log, during the given match phase.
+     */
+    public void setLoggingPolicy(PigeonSignal signal, MatchPhase phase, LoggingPolicy policy) {
+        inputs.getLogFilter().setPolicy(signal.getId(), phase, policy);
+    }
+
     @Override
-    public void periodic() {
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void refresh() {
         refreshInputs(inputs);
-        Logger.processInputs("Pigeons/" + name, inputs);
+    }
 
+    @Override
+    public void log() {
+        Logger.processInputs("Pigeons/" + name, inputs);
     }
 
     @Override
@@ -1,6 +1,7 @@
 package frc.lib.generic.hardware.pigeon;
 
 import frc.lib.generic.advantagekit.ChoosableLoggedInputs;
+import frc.lib.generic.advantagekit.SignalLogFilter;
 import org.littletonrobotics.junction.LogTable;
 
 public class PigeonInputs implements ChoosableLoggedInputs {
@@ -15,23 +16,33 @@ public class PigeonInputs implements ChoosableLoggedInputs {
     public double[] threadGyroRollDegrees = new double[0];
 
     private boolean[] signalsToLog;
+    private final SignalLogFilter logFilter = new SignalLogFilter(PIGEON_INPUTS_LENGTH);
+
+    public PigeonInputs() {
+        logFilter.exemptThreadSamples(PigeonSignal.YAW.getId());
+    }
 
     @Override
     public void setSignalsToLog(boolean[] signalsToLog) {
         this.signalsToLog = signalsToLog;
     }
 
+    @Override
+    public SignalLogFilter getLogFilter() {
+        return logFilter;
+    }
+
     @Override
     public void toLog(LogTable table) {
         if (signalsToLog == null) return;
 
-        if (signalsToLog[0]) table.put("GyroYawDegrees", gyroYawDegrees);
-        if (signalsToLog[1]) table.put("GyroRollDegrees", gyroRollDegrees);
-        if (signalsToLog[2]) table.put("GyroPitchDegrees", gyroPitchDegrees);
+        if (signalsToLog[0] && logFilter.shouldLog(0, gyroYawDegrees)) table.put("GyroYawDegrees", gyroYawDegrees);
+        if (signalsToLog[1] && logFilter.shouldLog(1, gyroRollDegrees)) table.put("GyroRollDegrees", gyroRollDegrees);
+        if (signalsToLog[2] && logFilter.shouldLog(2, gyroPitchDegrees)) table.put("GyroPitchDegrees", gyroPitchDegrees);
 
-        if (signalsToLog[3]) table.put("ThreadGyroYawDegrees", threadGyroYawDegrees);
-        if (signalsToLog[4]) table.put("ThreadGyroPitchDegrees", threadGyroPitchDegrees);
-        if (signalsToLog[5]) table.put("ThreadGyroRollDegrees", threadGyroRollDegrees);
+        if (signalsToLog[3] && logFilter.shouldLog(3, threadGyroYawDegrees)) table.put("ThreadGyroYawDegrees", threadGyroYawDegrees);
+        if (signalsToLog[4] && logFilter.shouldLog(4, threadGyroPitchDegrees)) table.put("ThreadGyroPitchDegrees", threadGyroPitchDegrees);
+        if (signalsToLog[5] && logFilter.shouldLog(5, threadGyroRollDegrees)) table.put("ThreadGyroRollDegrees", threadGyroRollDegrees);
     }
 
     @Override
@@ -1,22 +1,24 @@
 package frc.lib.generic.hardware.pigeon.hardware;
 
+import com.ctre.phoenix.sensors.PigeonIMU_StatusFrame;
 import com.ctre.phoenix.sensors.WPI_PigeonIMU;
 import frc.lib.generic.hardware.pigeon.Pigeon;
 import frc.lib.generic.hardware.pigeon.PigeonInputs;
 import frc.lib.generic.hardware.pigeon.PigeonSignal;
 import frc.lib.generic.OdometryThread;
+import frc.lib.generic.SignalQueue;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Queue;
 
 import static frc.lib.generic.hardware.pigeon.PigeonInputs.PIGEON_INPUTS_LENGTH;
+import static frc.robot.GlobalConstants.MAXIMUM_ODOMETRY_FREQUENCY_HERTZ;
 
 public class GenericIMU extends Pigeon {
     private final WPI_PigeonIMU pigeon;
 
     private final boolean[] signalsToLog = new boolean[PIGEON_INPUTS_LENGTH];
-    private final Map<String, Queue<Double>> signalQueueList = new HashMap<>();
+    private final Map<String, SignalQueue> signalQueueList = new HashMap<>();
 
     public GenericIMU(String name, int deviceNumber) {
         super(name);
@@ -42,6 +44,9 @@ public class GenericIMU extends Pigeon {
 
         signalsToLog[signal.getId() + PIGEON_INPUTS_LENGTH / 2] = true;
 
+        //The thread polls the latest reported angles, so they're only as fresh as their status frame
+        pigeon.setStatusFramePeriod(PigeonIMU_StatusFrame.CondStatus_9_SixDeg_YPR, (int) Math.ceil(1000 / MAXIMUM_ODOMETRY_FREQUENCY_HERTZ));
+
         switch (signal) {
             case YAW -> signalQueueList.put("yaw", OdometryThread.getInstance().registerSignal(pigeon::getYaw));
             case ROLL -> signalQueueList.put("roll", OdometryThread.getInstance().registerSignal(pigeon::getRoll));
@@ -62,12 +67,10 @@ public class GenericIMU extends Pigeon {
         if (signalQueueList.isEmpty()) return;
 
         if (signalQueueList.get("yaw") != null)
-            inputs.threadGyroYawDegrees = signalQueueList.get("yaw").stream().mapToDouble(Double::doubleValue).toArray();
+            inputs.threadGyroYawDegrees = signalQueueList.get("yaw").drain();
         if (signalQueueList.get("pitch") != null)
-            inputs.threadGyroPitchDegrees = signalQueueList.get("pitch").stream().mapToDouble(Double::doubleValue).toArray();
+            inputs.threadGyroPitchDegrees = signalQueueList.get("pitch").drain();
         if (signalQueueList.get("roll") != null)
-            inputs.threadGyroRollDegrees = signalQueueList.get("roll").stream().mapToDouble(Double::doubleValue).toArray();
-
-        signalQueueList.forEach((k, v) -> v.clear());
+            inputs.threadGyroRollDegrees = signalQueueList.get("roll").drain();
     }
 }
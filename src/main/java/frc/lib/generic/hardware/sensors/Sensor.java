@@ -19,8 +19,17 @@ public class Sensor implements LoggableHardware {
     public int get() { return inputs.currentValue; }
 
     @Override
-    public void periodic() {
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void refresh() {
         refreshInputs(inputs);
+    }
+
+    @Override
+    public void log() {
         Logger.processInputs(name, inputs);
     }
 
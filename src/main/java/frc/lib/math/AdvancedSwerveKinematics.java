@@ -78,6 +78,56 @@ public class AdvancedSwerveKinematics {
         );
     }
 
+    /**
+     * Move a pose by a constant curvature velocity, in place and without allocating.
+     * Equivalent to {@code pose.exp(new Twist2d(dx, dy, dtheta))}.
+     *
+     * @param dx     Forward motion, relative to the pose
+     * @param dy     Sideways motion, relative to the pose
+     * @param dtheta Rotation, in radians
+     * @param pose   The pose to move, as {x, y, theta}
+     */
+    public static void exp(double dx, double dy, double dtheta, double[] pose) {
+        double s, c;
+
+        if (Math.abs(dtheta) < EPS) {
+            s = 1.0 - 1.0 / 6.0 * dtheta * dtheta;
+            c = .5 * dtheta;
+        } else {
+            s = Math.sin(dtheta) / dtheta;
+            c = (1.0 - Math.cos(dtheta)) / dtheta;
+        }
+
+        final double relativeX = dx * s - dy * c, relativeY = dx * c + dy * s;
+        final double cos = Math.cos(pose[2]), sin = Math.sin(pose[2]);
+
+        pose[0] += cos * relativeX - sin * relativeY;
+        pose[1] += sin * relativeX + cos * relativeY;
+        pose[2] += dtheta;
+    }
+
+    /**
+     * Find the constant curvature motion that results in a transform, without allocating.
+     * Equivalent to {@code new Pose2d().log(new Pose2d(dx, dy, Rotation2d.fromRadians(dtheta)))}.
+     *
+     * @param dx     Forward part of the transform
+     * @param dy     Sideways part of the transform
+     * @param dtheta Rotation of the transform, in radians
+     * @param result The array to write the motion into, as {dx, dy, dtheta}
+     */
+    public static void log(double dx, double dy, double dtheta, double[] result) {
+        final double halfDtheta = 0.5 * dtheta;
+        final double cosMinusOne = Math.cos(dtheta) - 1.0;
+
+        final double halfThetaByTanOfHalfDtheta = Math.abs(cosMinusOne) < EPS
+                ? 1.0 - 1.0 / 12.0 * dtheta * dtheta
+                : -(halfDtheta * Math.sin(dtheta)) / cosMinusOne;
+
+        result[0] = halfThetaByTanOfHalfDtheta * dx + halfDtheta * dy;
+        result[1] = -halfDtheta * dx + halfThetaByTanOfHalfDtheta * dy;
+        result[2] = dtheta;
+    }
+
     /**
      * Obtain constant curvature velocity given pose
      *
@@ -17,17 +17,25 @@ import static frc.robot.RobotContainer.ROBORIO_ACCELEROMETER;
 public class Optimizations {
     /**
      * Determines if the robot is currently experiencing a collision based on accelerometer data.
-     * This method calculates the resultant acceleration from the X and Y axes of the accelerometer,
-     * then multiplies it by the gravitational constant to convert it into a force value.
-     * If this force exceeds a predefined minimum threshold, it is considered that a collision has occurred.
+     * If the horizontal acceleration exceeds a predefined minimum threshold, it is considered that a collision has occurred.
      *
      * @return true if the calculated force indicates a collision; false otherwise.
      */
     public static boolean isColliding() {
+        return getHorizontalAcceleration() > MINIMUM_ACCELERATION_FOR_COLLISION;
+    }
+
+    /**
+     * Calculates the resultant acceleration from the X and Y axes of the roboRIO's accelerometer,
+     * and multiplies it by the gravitational constant to convert it from G's.
+     *
+     * @return the horizontal acceleration of the robot, in metres per second squared
+     */
+    public static double getHorizontalAcceleration() {
         final float xAcceleration = (float) ROBORIO_ACCELEROMETER.getX();
         final float yAcceleration = (float) ROBORIO_ACCELEROMETER.getY();
 
-        return Math.hypot(xAcceleration, yAcceleration) * GRAVITY > MINIMUM_ACCELERATION_FOR_COLLISION;
+        return Math.hypot(xAcceleration, yAcceleration) * GRAVITY;
     }
 
     /**
@@ -0,0 +1,185 @@
+package frc.lib.util;
+
+import org.littletonrobotics.junction.Logger;
+
+import java.util.Arrays;
+
+import static frc.robot.GlobalConstants.ROBOT_PERIODIC_LOOP_TIME;
+import static frc.robot.GlobalConstants.SHOULD_PROFILE_LOOP;
+
+/**
+ * A low-overhead profiler for the main robot loop, based on {@link System#nanoTime()}.
+ * <p>
+ * Every section keeps a preallocated window of its latest durations. Every {@link #LOOPS_BETWEEN_PUBLISHES} loops,
+ * the p50, p99 and max of each window are published as AdvantageKit outputs under <code>LoopProfiler/</code>.
+ * When the profiled part of a loop takes longer than <code>ROBOT_PERIODIC_LOOP_TIME</code>,
+ * the sections that took the longest in that loop are published as well.
+ * <p>
+ * Usage:
+ * <pre>{@code
+ * private static final int SECTION = LoopProfiler.addSection("Section");
+ *
+ * final long startNanos = LoopProfiler.start();
+ * doWork();
+ * LoopProfiler.end(SECTION, startNanos);
+ * }</pre>
+ * This should only be used from the main thread.
+ */
+public class LoopProfiler {
+    private static final int WINDOW_SIZE = 250;
+    private static final int LOOPS_BETWEEN_PUBLISHES = 50;
+    private static final int TOP_OFFENDERS_COUNT = 3;
+    private static final long LOOP_BUDGET_NANOS = (long) (ROBOT_PERIODIC_LOOP_TIME * 1.0e9);
+
+    private static String[] names = new String[0];
+    private static String[] p50Keys = new String[0], p99Keys = new String[0], maxKeys = new String[0];
+
+    private static long[][] windows = new long[0][];
+    private static int[] windowSizes = new int[0];
+    private static int[] windowIndices = new int[0];
+
+    /** The time each section took in the current loop. Negative if the section didn't run. */
+    private static long[] loopDurations = new long[0];
+
+    private static final long[] sortedWindow = new long[WINDOW_SIZE];
+
+    private static long loopStartNanos = 0;
+    private static int loopsSinceLastPublish = 0;
+    private static int overrunCount = 0;
+
+    private LoopProfiler() {}
+
+    /**
+     * Register a new section to profile.
+     *
+     * @param name The name of the section, used as its log key
+     * @return The id of the section, to pass to {@link #end(int, long)}
+     */
+    public static int addSection(String name) {
+        final int id = names.length;
+        final int newLength = id + 1;
+
+        names = Arrays.copyOf(names, newLength);
+        p50Keys = Arrays.copyOf(p50Keys, newLength);
+        p99Keys = Arrays.copyOf(p99Keys, newLength);
+        maxKeys = Arrays.copyOf(maxKeys, newLength);
+        windows = Arrays.copyOf(windows, newLength);
+        windowSizes = Arrays.copyOf(windowSizes, newLength);
+        windowIndices = Arrays.copyOf(windowIndices, newLength);
+        loopDurations = Arrays.copyOf(loopDurations, newLength);
+
+        names[id] = name;
+        p50Keys[id] = "LoopProfiler/" + name + "/P50Milliseconds";
+        p99Keys[id] = "LoopProfiler/" + name + "/P99Milliseconds";
+        maxKeys[id] = "LoopProfiler/" + name + "/MaxMilliseconds";
+        windows[id] = new long[WINDOW_SIZE];
+        loopDurations[id] = -1;
+
+        return id;
+    }
+
+    /**
+     * Call this at the very beginning of <code>robotPeriodic()</code>.
+     */
+    public static void startLoop() {
+        if (!SHOULD_PROFILE_LOOP) return;
+
+        loopStartNanos = System.nanoTime();
+    }
+
+    /**
+     * @return The timestamp to pass to {@link #end(int, long)}, once the section is done
+     */
+    public static long start() {
+        return SHOULD_PROFILE_LOOP ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time a section took. A section that runs several times in the same loop is summed.
+     *
+     * @param section    The id of the section, from {@link #addSection(String)}
+     * @param startNanos The timestamp returned by {@link #start()}
+     */
+    public static void end(int section, long startNanos) {
+        if (!SHOULD_PROFILE_LOOP) return;
+
+        final long duration = System.nanoTime() - startNanos;
+
+        loopDurations[section] = loopDurations[section] < 0 ? duration : loopDurations[section] + duration;
+    }
+
+    /**
+     * Call this at the very end of <code>robotPeriodic()</code>.
+     */
+    public static void endLoop() {
+        if (!SHOULD_PROFILE_LOOP) return;
+
+        final long loopDuration = System.nanoTime() - loopStartNanos;
+
+        if (loopDuration > LOOP_BUDGET_NANOS) {
+            overrunCount++;
+            logTopOffenders();
+        }
+
+        for (int section = 0; section < names.length; section++) {
+            if (loopDurations[section] < 0) continue;
+
+            windows[section][windowIndices[section]] = loopDurations[section];
+            windowIndices[section] = (windowIndices[section] + 1) % WINDOW_SIZE;
+            windowSizes[section] = Math.min(windowSizes[section] + 1, WINDOW_SIZE);
+
+            loopDurations[section] = -1;
+        }
+
+        Logger.recordOutput("LoopProfiler/LoopMilliseconds", loopDuration / 1.0e6);
+        Logger.recordOutput("LoopProfiler/OverrunCount", overrunCount);
+
+        if (++loopsSinceLastPublish >= LOOPS_BETWEEN_PUBLISHES) {
+            loopsSinceLastPublish = 0;
+            publishStatistics();
+        }
+    }
+
+    private static void publishStatistics() {
+        for (int section = 0; section < names.length; section++) {
+            final int size = windowSizes[section];
+
+            if (size == 0) continue;
+
+            System.arraycopy(windows[section], 0, sortedWindow, 0, size);
+            Arrays.sort(sortedWindow, 0, size);
+
+            Logger.recordOutput(p50Keys[section], sortedWindow[(size - 1) / 2] / 1.0e6);
+            Logger.recordOutput(p99Keys[section], sortedWindow[(int) ((size - 1) * 0.99)] / 1.0e6);
+            Logger.recordOutput(maxKeys[section], sortedWindow[size - 1] / 1.0e6);
+        }
+    }
+
+    /**
+     * Only runs on overruns, so allocating the result here is fine.
+     */
+    private static void logTopOffenders() {
+        final int offendersCount = Math.min(TOP_OFFENDERS_COUNT, names.length);
+        final String[] topOffenders = new String[offendersCount];
+        final boolean[] picked = new boolean[names.length];
+
+        for (int i = 0; i < offendersCount; i++) {
+            int slowestSection = -1;
+
+            for (int section = 0; section < names.length; section++) {
+                if (picked[section] || loopDurations[section] < 0) continue;
+                if (slowestSection == -1 || loopDurations[section] > loopDurations[slowestSection]) slowestSection = section;
+            }
+
+            if (slowestSection == -1) {
+                topOffenders[i] = "";
+                continue;
+            }
+
+            picked[slowestSection] = true;
+            topOffenders[i] = names[slowestSection] + ": " + loopDurations[slowestSection] / 1.0e6 + "ms";
+        }
+
+        Logger.recordOutput("LoopProfiler/TopOffenders", topOffenders);
+    }
+}
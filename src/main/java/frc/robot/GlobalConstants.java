@@ -4,18 +4,49 @@ import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.geometry.Translation3d;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
 public class GlobalConstants {
     public static final double ROBOT_PERIODIC_LOOP_TIME = 0.02;
 
     public static final double ODOMETRY_FREQUENCY_HERTZ = 200.0;
-    public static final Lock FASTER_THREAD_LOCK = new ReentrantLock();
+
+    /**
+     * Whether Phoenix 6 devices (TalonFX, CANcoder) should be sampled by blocking on their CAN frames,
+     * rather than being polled at {@link #ODOMETRY_FREQUENCY_HERTZ} like the other devices.
+     */
+    public static final boolean USE_PHOENIX_SYNCHRONOUS_ODOMETRY = true;
+    public static final double PHOENIX_ODOMETRY_FREQUENCY_HERTZ = 200.0;
+
+    /**
+     * Whether the odometry sampling frequency may change between these bounds, depending on the roboRIO's load and the robot's speed.
+     * Either sampler's nominal frequency should sit strictly between them, so the frequency can move both ways.
+     */
+    public static final boolean USE_ADAPTIVE_ODOMETRY_FREQUENCY = true;
+    public static final double
+            MINIMUM_ODOMETRY_FREQUENCY_HERTZ = 100.0,
+            MAXIMUM_ODOMETRY_FREQUENCY_HERTZ = 250.0;
+
+    /**
+     * Whether motion profiles that run on the roboRIO (e.g. of Sparks) should be stepped by the {@link frc.lib.generic.ControlThread},
+     * at this frequency, rather than once per main loop. Only applies on the real robot.
+     * Every stepped motor sends a setpoint on every step - about 5 times the CAN traffic of stepping once per loop.
+     */
+    public static final boolean USE_CONTROL_THREAD = false;
+    public static final double CONTROL_THREAD_FREQUENCY_HERTZ = 250.0;
 
     public static final boolean IS_TUNING_MODE = true;
 
     public static final boolean SHOULD_WRITE_LOGS = true; //for when the roborio doesn't have enough space...
+
+    /**
+     * Whether to time the sections of the main loop, and log where the loop time goes.
+     */
+    public static final boolean SHOULD_PROFILE_LOOP = true;
+
+    /**
+     * Whether to refresh the devices of each bus concurrently, on a pool of this many threads. Only applies on the real robot.
+     */
+    public static final boolean USE_PARALLEL_HARDWARE_REFRESH = false;
+    public static final int HARDWARE_REFRESH_THREADS = 3;
     public static final Mode CURRENT_MODE = Mode.SIMULATION;
 
     public enum Mode {
@@ -26,6 +57,7 @@ public class GlobalConstants {
     public static final double MINIMUM_ACCELERATION_FOR_COLLISION = 25; //todo: Tune
 
     public static final double FIELD_LENGTH_METRES = 14.56;
+    public static final double FIELD_WIDTH_METRES = 8.21;
     public static final double GRAVITY_FORCE = 9.806;
 
     public static final double VOLTAGE_COMPENSATION_SATURATION = 12;
@@ -8,6 +8,7 @@ import edu.wpi.first.wpilibj.smartdashboard.Field2d;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import frc.lib.generic.hardware.HardwareManager;
+import frc.lib.util.LoopProfiler;
 import org.littletonrobotics.junction.LoggedRobot;
 
 import static frc.robot.RobotContainer.POSE_ESTIMATOR;
@@ -15,6 +16,11 @@ import static frc.robot.RobotContainer.SWERVE;
 import static frc.robot.poseestimation.photoncamera.CameraFactory.VISION_SIMULATION;
 
 public class Robot extends LoggedRobot {
+    private static final int
+            COMMAND_SCHEDULER_SECTION = LoopProfiler.addSection("CommandScheduler"),
+            SWERVE_ODOMETRY_SECTION = LoopProfiler.addSection("SwerveOdometry"),
+            POSE_ESTIMATOR_SECTION = LoopProfiler.addSection("PoseEstimator");
+
     private Command autonomousCommand;
     private final CommandScheduler commandScheduler = CommandScheduler.getInstance();
     private RobotContainer robotContainer;
@@ -28,11 +34,23 @@ public class Robot extends LoggedRobot {
 
     @Override
     public void robotPeriodic() {
+        LoopProfiler.startLoop();
+
+        long sectionStart = LoopProfiler.start();
         commandScheduler.run();
+        LoopProfiler.end(COMMAND_SCHEDULER_SECTION, sectionStart);
+
         HardwareManager.update();
 
+        sectionStart = LoopProfiler.start();
         SWERVE.periodicallyUpdateFromOdometry();
+        LoopProfiler.end(SWERVE_ODOMETRY_SECTION, sectionStart);
+
+        sectionStart = LoopProfiler.start();
         POSE_ESTIMATOR.periodic();
+        LoopProfiler.end(POSE_ESTIMATOR_SECTION, sectionStart);
+
+        LoopProfiler.endLoop();
     }
 
     @Override
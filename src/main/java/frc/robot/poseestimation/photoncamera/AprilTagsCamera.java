@@ -5,59 +5,186 @@ import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Transform3d;
 import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.PubSubOption;
+import edu.wpi.first.networktables.RawSubscriber;
+import edu.wpi.first.networktables.TimestampedRaw;
 import frc.robot.GlobalConstants;
 import org.littletonrobotics.junction.Logger;
 import org.photonvision.EstimatedRobotPose;
 import org.photonvision.PhotonCamera;
 import org.photonvision.PhotonPoseEstimator;
+import org.photonvision.common.dataflow.structures.Packet;
 import org.photonvision.targeting.PhotonPipelineResult;
 import org.photonvision.targeting.PhotonTrackedTarget;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static frc.robot.GlobalConstants.CURRENT_MODE;
 import static frc.robot.poseestimation.photoncamera.CameraFactory.VISION_SIMULATION;
 import static frc.robot.poseestimation.poseestimator.PoseEstimatorConstants.MAXIMUM_AMBIGUITY;
-import static frc.robot.poseestimation.poseestimator.PoseEstimatorConstants.TAG_ID_TO_POSE;
-
+import static frc.robot.poseestimation.poseestimator.PoseEstimatorConstants.MAXIMUM_VISION_OBSERVATIONS_PER_CAMERA;
+import static frc.robot.poseestimation.poseestimator.PoseEstimatorConstants.TAG_TABLE;
+
+/**
+ * A PhotonVision camera whose results are ingested by a background thread.
+ * <p>
+ * The thread reads every pipeline result the camera publishes - not just the latest - through a NetworkTables queue,
+ * runs the {@link PhotonPoseEstimator} on it, and hands the estimated poses to the main loop through a lock-free queue.
+ * The main loop only moves them into the logged inputs.
+ */
 public class AprilTagsCamera extends PhotonCameraIO {
+    private static final long INGESTION_PERIOD_MILLISECONDS = 5;
+
+    private final String name;
     private final PhotonCamera photonCamera;
-    private final org.photonvision.PhotonPoseEstimator photonPoseEstimator;
+    private final PhotonPoseEstimator photonPoseEstimator;
+
+    private final RawSubscriber resultsSubscriber;
+    private final Packet packet = new Packet(1);
+
+    private final ConcurrentLinkedQueue<CameraObservation> observations = new ConcurrentLinkedQueue<>();
+    private final List<CameraObservation> drainedObservations = new ArrayList<>();
 
     public AprilTagsCamera(String cameraName, Transform3d robotCenterToCamera) {
         super(cameraName, robotCenterToCamera);
 
+        name = cameraName;
+
         photonCamera = new PhotonCamera(cameraName);
-        photonPoseEstimator = new org.photonvision.PhotonPoseEstimator(
+        photonPoseEstimator = new PhotonPoseEstimator(
                 AprilTagFields.k2024Crescendo.loadAprilTagLayoutField(),
-                org.photonvision.PhotonPoseEstimator.PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR,
+                PhotonPoseEstimator.PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR,
                 robotCenterToCamera
         );
 
         photonPoseEstimator.setMultiTagFallbackStrategy(PhotonPoseEstimator.PoseStrategy.LOWEST_AMBIGUITY);
 
+        resultsSubscriber = NetworkTableInstance.getDefault()
+                .getTable("photonvision")
+                .getSubTable(cameraName)
+                .getRawTopic("rawBytes")
+                .subscribe("rawBytes", new byte[0], PubSubOption.sendAll(true), PubSubOption.pollStorage(MAXIMUM_VISION_OBSERVATIONS_PER_CAMERA));
+
         if (GlobalConstants.Mode.SIMULATION == CURRENT_MODE)
             VISION_SIMULATION.addCamera(photonCamera, robotCenterToCamera);
+
+        // In replay, the results come from the log
+        if (CURRENT_MODE != GlobalConstants.Mode.REAL && CURRENT_MODE != GlobalConstants.Mode.SIMULATION) return;
+
+        final Thread ingestionThread = new Thread(this::ingestResults, "CameraIngestion/" + cameraName);
+        ingestionThread.setDaemon(true);
+        ingestionThread.start();
     }
 
-    private void logVisibleTags(boolean hasResult, Optional<EstimatedRobotPose> optionalEstimatedRobotPose) {
-        if (!hasResult) {
-            Logger.recordOutput("UsedTags/" + photonCamera.getName(), new Pose2d[0]);
-            return;
+    @Override
+    protected void refreshInputs(CameraInputsAutoLogged inputs) {
+        drainedObservations.clear();
+
+        CameraObservation observation;
+
+        while ((observation = observations.poll()) != null)
+            drainedObservations.add(observation);
+
+        final int count = drainedObservations.size();
+
+        // The log keeps a reference to the logged arrays, so they're replaced rather than refilled
+        if (count > 0 || inputs.resultTimestamps.length > 0) {
+            inputs.resultTimestamps = new double[count];
+            inputs.visibleTags = new int[count];
+            inputs.usedTagIds = new int[countUsedTags()];
+            inputs.averageDistancesFromTags = new double[count];
+            inputs.estimatedRobotPoses = new Pose3d[count];
         }
 
-        final EstimatedRobotPose estimatedRobotPose = optionalEstimatedRobotPose.get();
-        final Pose2d[] visibleTagPoses = new Pose2d[estimatedRobotPose.targetsUsed.size()];
+        for (int i = 0, tagOffset = 0; i < count; i++) {
+            final CameraObservation currentObservation = drainedObservations.get(i);
+            final int[] usedTagIds = currentObservation.usedTagIds();
 
-        for (int i = 0; i < visibleTagPoses.length; i++) {
-            final int currentId = estimatedRobotPose.targetsUsed.get(i).getFiducialId();
-            final Pose2d currentTagPose = TAG_ID_TO_POSE.get(currentId).toPose2d();
+            System.arraycopy(usedTagIds, 0, inputs.usedTagIds, tagOffset, usedTagIds.length);
+            tagOffset += usedTagIds.length;
 
-            visibleTagPoses[i] = currentTagPose;
+            inputs.resultTimestamps[i] = currentObservation.timestamp();
+            inputs.visibleTags[i] = usedTagIds.length;
+            inputs.averageDistancesFromTags[i] = currentObservation.averageDistanceFromTags();
+            inputs.estimatedRobotPoses[i] = currentObservation.estimatedRobotPose();
         }
 
-        Logger.recordOutput("UsedTags/" + photonCamera.getName(), visibleTagPoses);
+        logLatestObservation(count == 0 ? null : drainedObservations.get(count - 1));
+    }
+
+    private int countUsedTags() {
+        int usedTags = 0;
+
+        for (CameraObservation observation : drainedObservations)
+            usedTags += observation.usedTagIds().length;
+
+        return usedTags;
+    }
+
+    /**
+     * Runs on the ingestion thread. Never touches the logger, as it isn't thread safe.
+     */
+    private void ingestResults() {
+        while (!Thread.currentThread().isInterrupted()) {
+            for (TimestampedRaw rawResult : resultsSubscriber.readQueue())
+                ingestResult(rawResult);
+
+            try {
+                Thread.sleep(INGESTION_PERIOD_MILLISECONDS);
+            } catch (InterruptedException exception) {
+                return;
+            }
+        }
+    }
+
+    private void ingestResult(TimestampedRaw rawResult) {
+        if (rawResult.value.length == 0) return;
+
+        packet.clear();
+        packet.setData(rawResult.value);
+
+        final PhotonPipelineResult result = new PhotonPipelineResult();
+        result.createFromPacket(packet);
+        result.setTimestampSeconds(rawResult.timestamp / 1e6 - result.getLatencyMillis() / 1e3);
+
+        final Optional<EstimatedRobotPose> optionalEstimatedRobotPose = photonPoseEstimator.update(result);
+
+        if (!hasResult(optionalEstimatedRobotPose)) return;
+
+        final EstimatedRobotPose estimatedRobotPose = optionalEstimatedRobotPose.get();
+        final int[] usedTagIds = new int[estimatedRobotPose.targetsUsed.size()];
+
+        for (int i = 0; i < usedTagIds.length; i++)
+            usedTagIds[i] = estimatedRobotPose.targetsUsed.get(i).getFiducialId();
+
+        observations.offer(new CameraObservation(
+                estimatedRobotPose.timestampSeconds,
+                estimatedRobotPose.estimatedPose,
+                usedTagIds,
+                getAverageDistanceFromTags(result),
+                result.hasTargets() ? result.getBestTarget().getPitch() : Double.NaN
+        ));
+    }
+
+    private void logLatestObservation(CameraObservation observation) {
+        if (observation == null) {
+            Logger.recordOutput("UsedTags/" + name, new Pose2d[0]);
+            return;
+        }
+
+        if (!Double.isNaN(observation.bestTargetPitchDegrees()))
+            Logger.recordOutput("CameraPitch/" + name, observation.bestTargetPitchDegrees());
+
+        final Pose2d[] visibleTagPoses = new Pose2d[observation.usedTagIds().length];
+
+        for (int i = 0; i < visibleTagPoses.length; i++)
+            visibleTagPoses[i] = TAG_TABLE.getPose2d(observation.usedTagIds()[i]);
+
+        Logger.recordOutput("UsedTags/" + name, visibleTagPoses);
     }
 
     private boolean hasResult(Optional<EstimatedRobotPose> optionalEstimatedRobotPose) {
@@ -82,29 +209,4 @@ public class AprilTagsCamera extends PhotonCameraIO {
 
         return distanceSum / targets.size();
     }
-
-    @Override
-    protected void refreshInputs(CameraInputsAutoLogged inputs) {
-        final PhotonPipelineResult latestResult = photonCamera.getLatestResult();
-        final Optional<EstimatedRobotPose> optionalEstimatedRobotPose = photonPoseEstimator.update(photonCamera.getLatestResult());
-
-        inputs.hasResult = hasResult(optionalEstimatedRobotPose);
-
-        if (inputs.hasResult) {
-            final EstimatedRobotPose estimatedRobotPose = optionalEstimatedRobotPose.get();
-
-            if (photonCamera.getLatestResult().getBestTarget() != null)
-                Logger.recordOutput("CameraPitch/" + photonCamera.getName(), photonCamera.getLatestResult().getBestTarget().getPitch());
-
-            inputs.estimatedRobotPose = estimatedRobotPose.estimatedPose;
-            inputs.lastResultTimestamp = estimatedRobotPose.timestampSeconds;
-            inputs.visibleTags = estimatedRobotPose.targetsUsed.size();
-            inputs.averageDistanceFromTags = getAverageDistanceFromTags(latestResult);
-        } else {
-            inputs.visibleTags = 0;
-            inputs.estimatedRobotPose = new Pose3d();
-        }
-
-        logVisibleTags(inputs.hasResult, optionalEstimatedRobotPose);
-    }
 }
@@ -0,0 +1,14 @@
+package frc.robot.poseestimation.photoncamera;
+
+import edu.wpi.first.math.geometry.Pose3d;
+
+/**
+ * A robot pose estimated by a camera's ingestion thread, waiting to be handed to the main loop.
+ *
+ * @param timestamp               The time the image was captured, in seconds
+ * @param estimatedRobotPose      The estimated robot pose
+ * @param usedTagIds              The IDs of the tags used for the estimation
+ * @param averageDistanceFromTags The average distance from the camera to the tags, in metres
+ * @param bestTargetPitchDegrees  The pitch of the best target, or NaN if there is none
+ */
+record CameraObservation(double timestamp, Pose3d estimatedRobotPose, int[] usedTagIds, double averageDistanceFromTags, double bestTargetPitchDegrees) { }
@@ -6,37 +6,67 @@ import edu.wpi.first.math.geometry.Transform3d;
 import org.littletonrobotics.junction.AutoLog;
 import org.littletonrobotics.junction.Logger;
 
+/**
+ * A camera that estimates the robot's pose.
+ * <p>
+ * Every loop, {@link #refresh()} gathers every result the camera produced since the previous loop into the inputs,
+ * so replay sees exactly the same results. In replay, this class is used as is and the results come from the log.
+ */
 public class PhotonCameraIO {
     private final String name;
     private final Transform3d robotCenterToCamera;
 
     private final CameraInputsAutoLogged inputs = new CameraInputsAutoLogged();
 
-    private double lastUpdatedTimestamp;
+    /** The index of each result's first tag in {@link CameraInputs#usedTagIds} */
+    private int[] usedTagOffsets = new int[0];
 
     public PhotonCameraIO(String name, Transform3d robotCenterToCamera) {
         this.name = name;
         this.robotCenterToCamera = robotCenterToCamera;
     }
 
-    public double getLastResultTimestamp() {
-        return inputs.lastResultTimestamp;
+    /**
+     * @return The amount of results the camera produced since the previous loop
+     */
+    public int getResultCount() {
+        return inputs.resultTimestamps.length;
     }
 
-    public int getVisibleTags() {
-        return inputs.visibleTags;
+    public double getResultTimestamp(int result) {
+        return inputs.resultTimestamps[result];
     }
 
-    public double getAverageDistanceFromTags() {
-        return inputs.averageDistanceFromTags;
+    public int getVisibleTags(int result) {
+        return inputs.visibleTags[result];
     }
 
-    public boolean hasNewResult() {
-        return inputs.hasResult && inputs.averageDistanceFromTags != 0 && isNewTimestamp();
+    /**
+     * @param result the index of the result
+     * @param tag    the index of the tag within the result, below {@link #getVisibleTags(int)}
+     * @return the ID of the tag, or -1 if the inputs don't include it (e.g. a log recorded before the tag IDs were logged)
+     */
+    public int getUsedTagId(int result, int tag) {
+        if (result >= inputs.visibleTags.length) return -1;
+
+        final int index = usedTagOffsets[result] + tag;
+        return index < inputs.usedTagIds.length ? inputs.usedTagIds[index] : -1;
+    }
+
+    public double getAverageDistanceFromTags(int result) {
+        return inputs.averageDistancesFromTags[result];
+    }
+
+    public Pose3d getRobotPose3d(int result) {
+        return inputs.estimatedRobotPoses[result];
     }
 
-    public Pose2d getRobotPose() {
-        return inputs.estimatedRobotPose.toPose2d();
+    public Pose2d getRobotPose(int result) {
+        return inputs.estimatedRobotPoses[result].toPose2d();
+    }
+
+    public Transform3d getRobotCenterToCamera() {
+        return robotCenterToCamera;
     }
 
     protected void refreshInputs(CameraInputsAutoLogged inputs) { }
@@ -44,24 +74,24 @@ public class PhotonCameraIO {
     public void refresh() {
         refreshInputs(inputs);
         Logger.processInputs("Cameras/" + name, inputs);
-    }
 
-    private boolean isNewTimestamp() {
-        if (lastUpdatedTimestamp == getLastResultTimestamp())
-            return false;
+        if (usedTagOffsets.length < inputs.visibleTags.length)
+            usedTagOffsets = new int[inputs.visibleTags.length];
 
-        lastUpdatedTimestamp = getLastResultTimestamp();
-        return true;
+        for (int result = 0, offset = 0; result < inputs.visibleTags.length; result++) {
+            usedTagOffsets[result] = offset;
+            offset += inputs.visibleTags[result];
+        }
     }
 
     @AutoLog
     public static class CameraInputs {
-        public boolean hasResult = false;
-        public int visibleTags = 0;
-
-        public double lastResultTimestamp = 0;
-        public double averageDistanceFromTags = 0;
+        public double[] resultTimestamps = new double[0];
+        public int[] visibleTags = new int[0];
+        /** The IDs of the tags each result used, one result after the other */
+        public int[] usedTagIds = new int[0];
+        public double[] averageDistancesFromTags = new double[0];
 
-        public Pose3d estimatedRobotPose = new Pose3d();
+        public Pose3d[] estimatedRobotPoses = new Pose3d[0];
     }
 }
@@ -0,0 +1,80 @@
+package frc.robot.poseestimation.poseestimator;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Translation3d;
+
+/**
+ * An immutable table of the field's AprilTags, indexed directly by tag ID.
+ * <p>
+ * Everything derived from a tag's pose is computed once, when the table is built,
+ * so looking a tag up is an array access - no boxing, hashing or allocation.
+ */
+public class AprilTagTable {
+    private final Pose3d[] poses3d;
+    private final Pose2d[] poses2d;
+    private final double[] normalXs, normalYs, normalZs;
+
+    /**
+     * @param layout the layout to build the table from
+     */
+    public AprilTagTable(AprilTagFieldLayout layout) {
+        int maximumId = 0;
+
+        for (AprilTag aprilTag : layout.getTags())
+            maximumId = Math.max(maximumId, aprilTag.ID);
+
+        poses3d = new Pose3d[maximumId + 1];
+        poses2d = new Pose2d[maximumId + 1];
+        normalXs = new double[maximumId + 1];
+        normalYs = new double[maximumId + 1];
+        normalZs = new double[maximumId + 1];
+
+        for (AprilTag aprilTag : layout.getTags()) {
+            final int id = aprilTag.ID;
+            final Translation3d normal = new Translation3d(1, 0, 0).rotateBy(aprilTag.pose.getRotation());
+
+            poses3d[id] = aprilTag.pose;
+            poses2d[id] = aprilTag.pose.toPose2d();
+            normalXs[id] = normal.getX();
+            normalYs[id] = normal.getY();
+            normalZs[id] = normal.getZ();
+        }
+    }
+
+    /**
+     * @return the highest tag ID in the table. IDs from 0 to this may or may not be tags - check with {@link #hasTag(int)}
+     */
+    public int getMaximumId() {
+        return poses3d.length - 1;
+    }
+
+    public boolean hasTag(int id) {
+        return id >= 0 && id < poses3d.length && poses3d[id] != null;
+    }
+
+    public Pose3d getPose3d(int id) {
+        return poses3d[id];
+    }
+
+    public Pose2d getPose2d(int id) {
+        return poses2d[id];
+    }
+
+    /**
+     * The normal is the field-relative unit vector the tag faces, out of its face.
+     */
+    public double getNormalX(int id) {
+        return normalXs[id];
+    }
+
+    public double getNormalY(int id) {
+        return normalYs[id];
+    }
+
+    public double getNormalZ(int id) {
+        return normalZs[id];
+    }
+}
@@ -0,0 +1,23 @@
+package frc.robot.poseestimation.poseestimator;
+
+/**
+ * The standard deviations grow with the square of the average distance from the tags,
+ * and shrink with the amount of tags. Ignores everything else.
+ */
+public class DistanceStdDevModel implements VisionStdDevModel {
+    private final double translationCoefficient, rotationCoefficient;
+
+    public DistanceStdDevModel(double translationCoefficient, double rotationCoefficient) {
+        this.translationCoefficient = translationCoefficient;
+        this.rotationCoefficient = rotationCoefficient;
+    }
+
+    @Override
+    public void calculateStdDevs(VisionFeatures features, double[] result) {
+        final double squaredDistance = features.averageDistanceMetres * features.averageDistanceMetres;
+        final int tagCount = features.tagCount;
+
+        result[0] = result[1] = translationCoefficient * squaredDistance / (tagCount * tagCount);
+        result[2] = rotationCoefficient * squaredDistance / tagCount;
+    }
+}
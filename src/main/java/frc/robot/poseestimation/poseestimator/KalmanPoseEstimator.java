@@ -0,0 +1,365 @@
+package frc.robot.poseestimation.poseestimator;
+
+import edu.wpi.first.math.MathUtil;
+import frc.lib.math.AdvancedSwerveKinematics;
+
+/**
+ * A pose estimator that keeps a full 3x3 covariance of the field-relative {x, y, theta} estimate.
+ * <p>
+ * Every odometry twist moves the estimate and grows the covariance, in proportion to the motion.
+ * Vision measurements are fused with a full Kalman update at the odometry sample closest before their timestamp,
+ * and every buffered twist after the oldest one is then re-applied once, so late measurements correct the pose as if they had arrived on time.
+ * <p>
+ * Everything is stored in preallocated primitive arrays - nothing is allocated per sample or per measurement.
+ */
+public class KalmanPoseEstimator {
+    private static final int STATE_SIZE = 3, COVARIANCE_SIZE = 9;
+
+    private final double historySeconds;
+    private final double[] processStdDevsPerMotion;
+    private final double[] initialStdDevs;
+
+    // History, indexed by physical sample index. States and covariances are the estimate after the sample's twist.
+    private final double[] timestamps, twists, noiseMultipliers, states, covariances;
+    private int start = 0, size = 0;
+
+    private final double[] state = new double[STATE_SIZE];
+    private final double[] covariance = new double[COVARIANCE_SIZE];
+
+    // Scratch space, so updates don't allocate
+    private final double[] innovationCovariance = new double[COVARIANCE_SIZE];
+    private final double[] inverseInnovationCovariance = new double[COVARIANCE_SIZE];
+    private final double[] gain = new double[COVARIANCE_SIZE];
+    private final double[] scratchCovariance = new double[COVARIANCE_SIZE];
+    private final double[] innovation = new double[STATE_SIZE];
+
+    /**
+     * @param historySeconds          how far back in time measurements are still fused
+     * @param capacity                the maximum amount of odometry samples to keep
+     * @param processStdDevsPerMotion the standard deviations added per metre driven (x, y) and per radian rotated (theta)
+     * @param initialStdDevs          the standard deviations of the estimate after a reset
+     */
+    public KalmanPoseEstimator(double historySeconds, int capacity, double[] processStdDevsPerMotion, double[] initialStdDevs) {
+        this.historySeconds = historySeconds;
+        this.processStdDevsPerMotion = processStdDevsPerMotion;
+        this.initialStdDevs = initialStdDevs;
+
+        timestamps = new double[capacity];
+        twists = new double[capacity * STATE_SIZE];
+        noiseMultipliers = new double[capacity];
+        states = new double[capacity * STATE_SIZE];
+        covariances = new double[capacity * COVARIANCE_SIZE];
+
+        resetPose(0, 0, 0);
+    }
+
+    /**
+     * Moves the estimate by a robot-relative twist, and grows the covariance accordingly.
+     * A twist that isn't newer than the latest sample (e.g. a repeated frame timestamp) is merged into that sample,
+     * like the {@link PoseHistoryBuffer} merges poses, so its motion still reaches the estimate.
+     *
+     * @param noiseMultiplier how much less this twist is trusted than usual, as a multiplier of the process noise standard deviations
+     */
+    public void addOdometryTwist(double timestamp, double dx, double dy, double dtheta, double noiseMultiplier) {
+        if (size > 0 && timestamp <= timestamps[toPhysicalIndex(size - 1)]) {
+            mergeIntoLatestSample(dx, dy, dtheta, noiseMultiplier);
+            return;
+        }
+
+        propagate(dx, dy, dtheta, noiseMultiplier);
+
+        if (size == timestamps.length) removeOldest();
+
+        final int index = toPhysicalIndex(size);
+        size++;
+
+        timestamps[index] = timestamp;
+        twists[index * STATE_SIZE] = dx;
+        twists[index * STATE_SIZE + 1] = dy;
+        twists[index * STATE_SIZE + 2] = dtheta;
+        noiseMultipliers[index] = noiseMultiplier;
+        saveEstimate(index);
+
+        while (size > 1 && timestamps[start] < timestamp - historySeconds)
+            removeOldest();
+    }
+
+    /**
+     * The state is always the estimate after the latest sample, so the twist is applied on top of it.
+     * For replays, the twists are added - a single sample's worth of motion is small enough for that to be exact to first order.
+     */
+    private void mergeIntoLatestSample(double dx, double dy, double dtheta, double noiseMultiplier) {
+        final int index = toPhysicalIndex(size - 1);
+
+        propagate(dx, dy, dtheta, noiseMultiplier);
+
+        twists[index * STATE_SIZE] += dx;
+        twists[index * STATE_SIZE + 1] += dy;
+        twists[index * STATE_SIZE + 2] += dtheta;
+        noiseMultipliers[index] = Math.max(noiseMultipliers[index], noiseMultiplier);
+        saveEstimate(index);
+    }
+
+    /**
+     * Fuses a batch of field-relative pose measurements, each at its timestamp, with a single rollback to the oldest one
+     * and a single replay of the odometry that came after it.
+     *
+     * @param observations the measurements, sorted from oldest to newest
+     * @return the amount of measurements fused. Measurements older than the buffered history are ignored
+     */
+    public int addVisionObservations(VisionObservationBatch observations) {
+        int observation = 0;
+
+        while (observation < observations.size && findLatestSampleBefore(observations.timestamps[observation]) == -1)
+            observation++;
+
+        if (observation == observations.size) return 0;
+
+        final int firstFused = observation;
+        final int firstSample = findLatestSampleBefore(observations.timestamps[observation]);
+
+        loadEstimate(toPhysicalIndex(firstSample));
+
+        for (int logical = firstSample; logical < size; logical++) {
+            final int index = toPhysicalIndex(logical);
+
+            if (logical > firstSample)
+                propagate(twists[index * STATE_SIZE], twists[index * STATE_SIZE + 1], twists[index * STATE_SIZE + 2], noiseMultipliers[index]);
+
+            final double nextTimestamp = logical + 1 < size ? timestamps[toPhysicalIndex(logical + 1)] : Double.POSITIVE_INFINITY;
+
+            while (observation < observations.size && observations.timestamps[observation] < nextTimestamp) {
+                correct(
+                        observations.x[observation], observations.y[observation], observations.theta[observation],
+                        observations.xStdDevs[observation], observations.yStdDevs[observation], observations.thetaStdDevs[observation]
+                );
+                observation++;
+            }
+
+            saveEstimate(index);
+        }
+
+        return observation - firstFused;
+    }
+
+    /**
+     * Sets the estimate to the given pose with the initial covariance, and clears the history.
+     */
+    public void resetPose(double x, double y, double theta) {
+        state[0] = x;
+        state[1] = y;
+        state[2] = theta;
+
+        for (int i = 0; i < COVARIANCE_SIZE; i++) covariance[i] = 0;
+        for (int i = 0; i < STATE_SIZE; i++) covariance[i * 4] = initialStdDevs[i] * initialStdDevs[i];
+
+        start = 0;
+        size = 0;
+    }
+
+    /**
+     * Writes the latest estimate into the given array, as {x, y, theta}.
+     */
+    public void getEstimatedPose(double[] result) {
+        System.arraycopy(state, 0, result, 0, STATE_SIZE);
+    }
+
+    /**
+     * @return the standard deviation of the latest estimate along the given axis (0 = x, 1 = y, 2 = theta)
+     */
+    public double getStdDev(int axis) {
+        return Math.sqrt(covariance[axis * 4]);
+    }
+
+    /**
+     * The squared Mahalanobis distance of a measurement from the estimate at its timestamp, e^T S^-1 e,
+     * with the full innovation covariance S = P + R. P is the covariance after the latest sample at or before the timestamp,
+     * so the correlations odometry built up between the axes are accounted for.
+     *
+     * @param xError     the measured x minus the estimated x at the timestamp
+     * @param yError     the measured y minus the estimated y at the timestamp
+     * @param thetaError the measured theta minus the estimated theta at the timestamp, wrapped to [-pi, pi]
+     * @return the squared distance, or 0 if the timestamp is before the buffered history
+     */
+    public double calculateSquaredMahalanobisDistance(double timestamp, double xError, double yError, double thetaError,
+                                                      double xStdDev, double yStdDev, double thetaStdDev) {
+        final int sample = findLatestSampleBefore(timestamp);
+
+        if (sample == -1) return 0;
+
+        System.arraycopy(covariances, toPhysicalIndex(sample) * COVARIANCE_SIZE, innovationCovariance, 0, COVARIANCE_SIZE);
+
+        innovationCovariance[0] += xStdDev * xStdDev;
+        innovationCovariance[4] += yStdDev * yStdDev;
+        innovationCovariance[8] += thetaStdDev * thetaStdDev;
+
+        if (!invert(innovationCovariance, inverseInnovationCovariance)) return 0;
+
+        innovation[0] = xError;
+        innovation[1] = yError;
+        innovation[2] = thetaError;
+
+        double squaredDistance = 0;
+
+        for (int row = 0; row < STATE_SIZE; row++) {
+            for (int column = 0; column < STATE_SIZE; column++)
+                squaredDistance += innovation[row] * inverseInnovationCovariance[row * 3 + column] * innovation[column];
+        }
+
+        return squaredDistance;
+    }
+
+    /**
+     * x' = x + R(theta) * exp(twist), P' = F P F^T + Q, where F is the Jacobian of the motion by the state,
+     * and Q is the robot-relative motion noise rotated into the field frame, scaled by the noise multiplier.
+     */
+    private void propagate(double dx, double dy, double dtheta, double noiseMultiplier) {
+        final double previousX = state[0], previousY = state[1];
+
+        AdvancedSwerveKinematics.exp(dx, dy, dtheta, state);
+
+        final double fieldDx = state[0] - previousX, fieldDy = state[1] - previousY;
+
+        // F = [[1, 0, -fieldDy], [0, 1, fieldDx], [0, 0, 1]]
+        for (int column = 0; column < STATE_SIZE; column++) {
+            covariance[column] += -fieldDy * covariance[6 + column];
+            covariance[3 + column] += fieldDx * covariance[6 + column];
+        }
+
+        for (int row = 0; row < STATE_SIZE; row++) {
+            covariance[row * 3] += -fieldDy * covariance[row * 3 + 2];
+            covariance[row * 3 + 1] += fieldDx * covariance[row * 3 + 2];
+        }
+
+        final double xStdDev = noiseMultiplier * processStdDevsPerMotion[0] * Math.abs(dx);
+        final double yStdDev = noiseMultiplier * processStdDevsPerMotion[1] * Math.abs(dy);
+        final double thetaStdDev = noiseMultiplier * processStdDevsPerMotion[2] * Math.abs(dtheta);
+
+        final double cos = Math.cos(state[2]), sin = Math.sin(state[2]);
+        final double xVariance = xStdDev * xStdDev, yVariance = yStdDev * yStdDev;
+
+        covariance[0] += cos * cos * xVariance + sin * sin * yVariance;
+        covariance[1] += cos * sin * (xVariance - yVariance);
+        covariance[3] += cos * sin * (xVariance - yVariance);
+        covariance[4] += sin * sin * xVariance + cos * cos * yVariance;
+        covariance[8] += thetaStdDev * thetaStdDev;
+    }
+
+    /**
+     * The Kalman update with H = I: K = P (P + R)^-1, x' = x + K (z - x), P' = (I - K) P.
+     */
+    private void correct(double x, double y, double theta, double xStdDev, double yStdDev, double thetaStdDev) {
+        System.arraycopy(covariance, 0, innovationCovariance, 0, COVARIANCE_SIZE);
+
+        innovationCovariance[0] += xStdDev * xStdDev;
+        innovationCovariance[4] += yStdDev * yStdDev;
+        innovationCovariance[8] += thetaStdDev * thetaStdDev;
+
+        if (!invert(innovationCovariance, inverseInnovationCovariance)) return;
+
+        multiply(covariance, inverseInnovationCovariance, gain);
+
+        innovation[0] = x - state[0];
+        innovation[1] = y - state[1];
+        innovation[2] = MathUtil.angleModulus(theta - state[2]);
+
+        for (int row = 0; row < STATE_SIZE; row++) {
+            for (int column = 0; column < STATE_SIZE; column++)
+                state[row] += gain[row * 3 + column] * innovation[column];
+        }
+
+        multiply(gain, covariance, scratchCovariance);
+
+        for (int i = 0; i < COVARIANCE_SIZE; i++)
+            covariance[i] -= scratchCovariance[i];
+
+        // Keep the covariance symmetric despite rounding errors
+        for (int row = 0; row < STATE_SIZE; row++) {
+            for (int column = row + 1; column < STATE_SIZE; column++) {
+                final double average = 0.5 * (covariance[row * 3 + column] + covariance[column * 3 + row]);
+
+                covariance[row * 3 + column] = average;
+                covariance[column * 3 + row] = average;
+            }
+        }
+    }
+
+    /**
+     * @return the logical index of the latest sample at or before the timestamp, or -1 if there is none
+     */
+    private int findLatestSampleBefore(double timestamp) {
+        if (size == 0 || timestamp < timestamps[start]) return -1;
+
+        int low = 0, high = size - 1;
+
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+
+            if (timestamps[toPhysicalIndex(middle)] <= timestamp) low = middle;
+            else high = middle - 1;
+        }
+
+        return low;
+    }
+
+    private void saveEstimate(int index) {
+        System.arraycopy(state, 0, states, index * STATE_SIZE, STATE_SIZE);
+        System.arraycopy(covariance, 0, covariances, index * COVARIANCE_SIZE, COVARIANCE_SIZE);
+    }
+
+    private void loadEstimate(int index) {
+        System.arraycopy(states, index * STATE_SIZE, state, 0, STATE_SIZE);
+        System.arraycopy(covariances, index * COVARIANCE_SIZE, covariance, 0, COVARIANCE_SIZE);
+    }
+
+    private void removeOldest() {
+        start = (start + 1) % timestamps.length;
+        size--;
+    }
+
+    private int toPhysicalIndex(int logicalIndex) {
+        return (start + logicalIndex) % timestamps.length;
+    }
+
+    private static void multiply(double[] left, double[] right, double[] result) {
+        for (int row = 0; row < STATE_SIZE; row++) {
+            for (int column = 0; column < STATE_SIZE; column++) {
+                result[row * 3 + column] =
+                        left[row * 3] * right[column]
+                                + left[row * 3 + 1] * right[3 + column]
+                                + left[row * 3 + 2] * right[6 + column];
+            }
+        }
+    }
+
+    /**
+     * Inverts a 3x3 matrix by its cofactors.
+     *
+     * @return false if the matrix is singular
+     */
+    static boolean invert(double[] matrix, double[] result) {
+        final double
+                a = matrix[0], b = matrix[1], c = matrix[2],
+                d = matrix[3], e = matrix[4], f = matrix[5],
+                g = matrix[6], h = matrix[7], i = matrix[8];
+
+        final double cofactor00 = e * i - f * h, cofactor01 = f * g - d * i, cofactor02 = d * h - e * g;
+        final double determinant = a * cofactor00 + b * cofactor01 + c * cofactor02;
+
+        if (Math.abs(determinant) < 1e-12) return false;
+
+        final double inverseDeterminant = 1 / determinant;
+
+        result[0] = cofactor00 * inverseDeterminant;
+        result[1] = (c * h - b * i) * inverseDeterminant;
+        result[2] = (b * f - c * e) * inverseDeterminant;
+        result[3] = cofactor01 * inverseDeterminant;
+        result[4] = (a * i - c * g) * inverseDeterminant;
+        result[5] = (c * d - a * f) * inverseDeterminant;
+        result[6] = cofactor02 * inverseDeterminant;
+        result[7] = (b * g - a * h) * inverseDeterminant;
+        result[8] = (a * e - b * d) * inverseDeterminant;
+
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package frc.robot.poseestimation.poseestimator;
+
+import static frc.robot.GlobalConstants.MINIMUM_ACCELERATION_FOR_COLLISION;
+import static frc.robot.poseestimation.poseestimator.PoseEstimatorConstants.*;
+
+/**
+ * Rates how much an odometry sample can be trusted, as a multiplier of the odometry's process noise standard deviations.
+ * <p>
+ * Skidding wheels and collisions make the wheels' motion disagree with the robot's, so rather than dropping those samples,
+ * the estimator trusts them less and lets vision pull the pose back faster.
+ */
+public class OdometryNoiseModel {
+    private OdometryNoiseModel() {}
+
+    /**
+     * @param skidRatio    the skidding ratio of the sample, from {@link SwerveOdometryIntegrator#getSkidRatio()}
+     * @param acceleration the horizontal acceleration of the robot, in metres per second squared
+     * @return the multiplier of the process noise standard deviations. 1 for a clean sample
+     */
+    public static double calculateNoiseMultiplier(double skidRatio, double acceleration) {
+        final double skidNoise = ODOMETRY_SKID_NOISE_GAIN * (Math.min(skidRatio, MAXIMUM_SKID_RATIO) - 1);
+        final double accelerationNoise = ODOMETRY_ACCELERATION_NOISE_GAIN * Math.max(0,
+                (acceleration - NOMINAL_ACCELERATION_METRES_PER_SECOND_SQUARED) / (MINIMUM_ACCELERATION_FOR_COLLISION - NOMINAL_ACCELERATION_METRES_PER_SECOND_SQUARED));
+
+        return Math.min(1 + skidNoise + accelerationNoise, MAXIMUM_ODOMETRY_NOISE_MULTIPLIER);
+    }
+}
@@ -1,15 +1,11 @@
 package frc.robot.poseestimation.poseestimator;
 
 import com.pathplanner.lib.util.PathPlannerLogging;
-import edu.wpi.first.math.Matrix;
-import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.kinematics.SwerveDriveWheelPositions;
-import edu.wpi.first.math.numbers.N1;
-import edu.wpi.first.math.numbers.N3;
-import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.wpilibj.smartdashboard.Field2d;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import frc.lib.math.Optimizations;
@@ -18,10 +14,7 @@ import frc.robot.RobotContainer;
 import frc.robot.poseestimation.photoncamera.PhotonCameraIO;
 import org.littletonrobotics.junction.Logger;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 import static frc.robot.GlobalConstants.CURRENT_MODE;
 import static frc.robot.poseestimation.photoncamera.CameraFactory.VISION_SIMULATION;
@@ -36,6 +29,16 @@ public class PoseEstimator implements AutoCloseable {
     private final PhotonCameraIO[] robotPoseSources;
 
     private final PoseEstimator6328 poseEstimator6328 = PoseEstimator6328.getInstance();
+    private final VisionObservationBatch visionObservations;
+    private final VisionGate visionGate;
+
+    private final VisionFeatures visionFeatures = new VisionFeatures();
+    private final double[] visionStdDevs = new double[3], estimateAtTime = new double[3];
+    private final double[] predictedPose = new double[3], predictedVelocity = new double[3];
+    private final double[] visionResiduals;
+    private int visionResidualsLength = 0;
+    private int droppedVisionObservations = 0;
+    private double robotSpeedMetresPerSecond = 0;
 
     /**
      * Constructs a new PoseEstimator.
@@ -44,6 +47,9 @@ public class PoseEstimator implements AutoCloseable {
      */
     public PoseEstimator(PhotonCameraIO... robotPoseSources) {
         this.robotPoseSources = robotPoseSources;
+        this.visionObservations = new VisionObservationBatch(robotPoseSources.length * MAXIMUM_VISION_OBSERVATIONS_PER_CAMERA);
+        this.visionGate = new VisionGate(poseEstimator6328, robotPoseSources.length);
+        this.visionResiduals = new double[visionObservations.timestamps.length * VISION_RESIDUALS_ROW_LENGTH];
 
         putAprilTagsOnFieldWidget();
 
@@ -87,89 +93,183 @@ public class PoseEstimator implements AutoCloseable {
     }
 
     /**
-     * Updates the pose estimator with the given swerve wheel positions and gyro rotations.
-     * This function accepts an array of swerve wheel positions and an array of gyro rotations because the odometry can be updated at a faster rate than the main loop (which is 50 hertz).
+     * Predicts where the robot will be once the mechanisms act on a command given now, so aiming doesn't lag behind the robot at speed.
+     * The prediction assumes the robot keeps the velocity of its recent odometry, and also covers the time since the latest odometry sample.
+     *
+     * @param lookaheadSeconds how far past now to predict the pose, usually the response time of the mechanism
+     * @return the predicted pose of the robot, relative to the blue alliance's driver station right corner
+     */
+    public Pose2d getPredictedPose(double lookaheadSeconds) {
+        poseEstimator6328.predictEstimatedPose(getCurrentTimestamp() + lookaheadSeconds, predictedPose);
+        return new Pose2d(predictedPose[0], predictedPose[1], Rotation2d.fromRadians(predictedPose[2]));
+    }
+
+    /**
+     * @param lookaheadSeconds how far past now to predict the velocity
+     * @return the field-relative velocity the robot is predicted to have at that time, at the heading of {@link #getPredictedPose(double)}
+     */
+    public ChassisSpeeds getPredictedFieldRelativeVelocity(double lookaheadSeconds) {
+        poseEstimator6328.predictEstimatedPose(getCurrentTimestamp() + lookaheadSeconds, predictedPose);
+        poseEstimator6328.calculateRobotRelativeVelocity(predictedVelocity);
+
+        final double cos = Math.cos(predictedPose[2]), sin = Math.sin(predictedPose[2]);
+
+        return new ChassisSpeeds(
+                cos * predictedVelocity[0] - sin * predictedVelocity[1],
+                sin * predictedVelocity[0] + cos * predictedVelocity[1],
+                predictedVelocity[2]
+        );
+    }
+
+    /**
+     * Updates the pose estimator with the odometry samples of the given frame.
+     * A frame holds every sample since the last update, because the odometry can be updated at a faster rate than the main loop (which is 50 hertz).
      * This means you could have a couple of odometry updates per main loop, and you would want to update the pose estimator with all of them.
      *
-     * @param swerveWheelPositions the swerve wheel positions accumulated since the last update
-     * @param gyroRotations        the gyro rotations accumulated since the last update
+     * @param odometryFrame the time-aligned odometry samples accumulated since the last update
      */
-    public void addOdometryObservations(SwerveDriveWheelPositions[] swerveWheelPositions, Rotation2d[] gyroRotations, double[] timestamps) {
-        if (timestamps.length == 0) {
-            System.out.println("0!! Timestamps");
-            return;
-        }
+    public void addOdometryObservations(SwerveOdometryFrame odometryFrame) {
+        Logger.recordOutput("PoseEstimator/DroppedOdometrySamples", odometryFrame.droppedSamples);
+        Logger.recordOutput("PoseEstimator/MisalignedOdometrySamples", odometryFrame.misalignedSamples);
+        Logger.recordOutput("PoseEstimator/MergedOdometrySamples", poseEstimator6328.getMergedOdometrySamples());
 
-        if (Optimizations.isColliding()) {
-            DriverStation.reportWarning("The robot collided! Discarding odometry at timestamp", false);
-            return;
-        }
+        if (odometryFrame.size == 0) return;
 
-        for (int i = 0; i < swerveWheelPositions.length; i++)
-            poseEstimator6328.addOdometryObservation(new PoseEstimator6328.OdometryObservation(
-                    swerveWheelPositions[i],
-                    gyroRotations[i],
-                    timestamps[i])
-            );
+        final double acceleration = Optimizations.getHorizontalAcceleration();
+        double maximumNoiseMultiplier = 1;
+
+        for (int sample = 0; sample < odometryFrame.size; sample++)
+            maximumNoiseMultiplier = Math.max(maximumNoiseMultiplier, poseEstimator6328.addOdometryObservation(odometryFrame, sample, acceleration));
+
+        Logger.recordOutput("PoseEstimator/OdometryNoiseMultiplier", maximumNoiseMultiplier);
     }
 
-    private void updateFromVision() {
-        getViableVisionObservations().stream()
-                .sorted(Comparator.comparingDouble(PoseEstimator6328.VisionObservation::timestamp))
-                .forEach(poseEstimator6328::addVisionObservation);
+    private static double getCurrentTimestamp() {
+        return Logger.getTimestamp() / 1.0e6;
     }
 
-    private List<PoseEstimator6328.VisionObservation> getViableVisionObservations() {
-        List<PoseEstimator6328.VisionObservation> viableVisionObservations = new ArrayList<>();
+    private void updateFromVision() {
+        visionObservations.clear();
+        visionResidualsLength = 0;
+        droppedVisionObservations = 0;
 
-        for (PhotonCameraIO robotPoseSource : robotPoseSources) {
-            final PoseEstimator6328.VisionObservation visionObservation = getVisionObservation(robotPoseSource);
+        final ChassisSpeeds robotVelocity = RobotContainer.SWERVE.getSelfRelativeVelocity();
+        robotSpeedMetresPerSecond = Math.hypot(robotVelocity.vxMetersPerSecond, robotVelocity.vyMetersPerSecond);
 
-            if (visionObservation != null)
-                viableVisionObservations.add(visionObservation);
+        for (int source = 0; source < robotPoseSources.length; source++)
+            addVisionObservations(source);
 
-            if (CURRENT_MODE == GlobalConstants.Mode.SIMULATION) {
-                if (visionObservation != null && visionObservation.visionPose() != null)
-                    VISION_SIMULATION.getDebugField()
-                        .getObject("VisionEstimation")
-                        .setPose(visionObservation.visionPose());
-                else {
-                    VISION_SIMULATION.getDebugField().getObject("VisionEstimation").setPoses();
-                }
-            }
-        }
+        visionGate.logRejections();
+        Logger.recordOutput("PoseEstimator/DroppedVisionObservations", droppedVisionObservations);
+        Logger.recordOutput(VISION_RESIDUALS_LOG_KEY, Arrays.copyOf(visionResiduals, visionResidualsLength));
 
-        return viableVisionObservations;
+        visionObservations.sortByTimestamp();
+        poseEstimator6328.addVisionObservations(visionObservations);
     }
 
-    private PoseEstimator6328.VisionObservation getVisionObservation(PhotonCameraIO robotPoseSource) {
+    private void addVisionObservations(int source) {
+        final PhotonCameraIO robotPoseSource = robotPoseSources[source];
         robotPoseSource.refresh();
 
-        if (!robotPoseSource.hasNewResult())
-            return null;
+        final int resultCount = robotPoseSource.getResultCount();
 
-        final Pose2d robotPose = robotPoseSource.getRobotPose();
+        if (CURRENT_MODE == GlobalConstants.Mode.SIMULATION) {
+            if (resultCount > 0)
+                VISION_SIMULATION.getDebugField().getObject("VisionEstimation").setPose(robotPoseSource.getRobotPose(resultCount - 1));
+            else
+                VISION_SIMULATION.getDebugField().getObject("VisionEstimation").setPoses();
+        }
 
-        if (robotPose == null)
-            return null;
+        for (int result = 0; result < resultCount; result++) {
+            if (robotPoseSource.getAverageDistanceFromTags(result) == 0) continue;
 
-        return new PoseEstimator6328.VisionObservation(
-                robotPose,
-                robotPoseSource.getLastResultTimestamp(),
-                averageDistanceToStdDevs(robotPoseSource.getAverageDistanceFromTags(), robotPoseSource.getVisibleTags())
-        );
+            final Pose3d robotPose = robotPoseSource.getRobotPose3d(result);
+            final double timestamp = robotPoseSource.getResultTimestamp(result);
+
+            visionFeatures.camera = source;
+            visionFeatures.tagCount = robotPoseSource.getVisibleTags(result);
+            visionFeatures.averageDistanceMetres = robotPoseSource.getAverageDistanceFromTags(result);
+            visionFeatures.averageViewingAngleRadians = calculateAverageViewingAngle(robotPoseSource, result, robotPose);
+            visionFeatures.robotSpeedMetresPerSecond = robotSpeedMetresPerSecond;
+
+            VISION_STD_DEV_MODEL.calculateStdDevs(visionFeatures, visionStdDevs);
+
+            final boolean isAccepted = visionGate.accept(source, timestamp, robotPose, visionStdDevs[0], visionStdDevs[1], visionStdDevs[2]);
+
+            addVisionResidual(timestamp, robotPose, visionGate.getLatestRejectionReason());
+
+            if (!isAccepted) continue;
+
+            final boolean wasAdded = visionObservations.add(
+                    timestamp,
+                    robotPose.getX(), robotPose.getY(), robotPose.getRotation().getZ(),
+                    visionStdDevs[0], visionStdDevs[1], visionStdDevs[2]
+            );
+
+            if (!wasAdded) droppedVisionObservations++;
+        }
     }
 
-    private Matrix<N3, N1> averageDistanceToStdDevs(double averageDistance, int visibleTags) {
-        final double translationStd = TRANSLATION_STD_EXPONENT * Math.pow(averageDistance, 2) / (visibleTags * visibleTags);
-        final double thetaStd = ROTATION_STD_EXPONENT * Math.pow(averageDistance, 2) / visibleTags;
+    /**
+     * @return the average angle between the normals of the tags the result used and the direction from each tag to the camera,
+     * or 0 if none of the result's tags are known
+     */
+    private double calculateAverageViewingAngle(PhotonCameraIO robotPoseSource, int result, Pose3d robotPose) {
+        final Pose3d cameraPose = robotPose.transformBy(robotPoseSource.getRobotCenterToCamera());
+        final int visibleTags = robotPoseSource.getVisibleTags(result);
+
+        double angleSum = 0;
+        int angleCount = 0;
+
+        for (int tag = 0; tag < visibleTags; tag++) {
+            final int id = robotPoseSource.getUsedTagId(result, tag);
+
+            if (!TAG_TABLE.hasTag(id)) continue;
+
+            final Pose3d tagPose = TAG_TABLE.getPose3d(id);
+            final double
+                    dx = cameraPose.getX() - tagPose.getX(),
+                    dy = cameraPose.getY() - tagPose.getY(),
+                    dz = cameraPose.getZ() - tagPose.getZ();
+            final double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+            if (distance == 0) continue;
+
+            final double cosine = (dx * TAG_TABLE.getNormalX(id) + dy * TAG_TABLE.getNormalY(id) + dz * TAG_TABLE.getNormalZ(id)) / distance;
+
+            angleSum += Math.acos(MathUtil.clamp(cosine, -1, 1));
+            angleCount++;
+        }
+
+        return angleCount == 0 ? 0 : angleSum / angleCount;
+    }
+
+    /**
+     * Records the observation's features, why it was rejected, and its residual from the estimate at its timestamp,
+     * for {@link VisionStdDevCalibration}. Rejected observations are recorded too, so the calibration isn't biased by the gate.
+     *
+     * @param rejectionReason why the gate rejected the observation, or null if it was accepted
+     */
+    private void addVisionResidual(double timestamp, Pose3d robotPose, VisionGate.RejectionReason rejectionReason) {
+        if (visionResidualsLength + VISION_RESIDUALS_ROW_LENGTH > visionResiduals.length) return;
+        if (!poseEstimator6328.sampleEstimatedPose(timestamp, estimateAtTime)) return;
+
+        visionFeatures.writeTo(visionResiduals, visionResidualsLength);
+
+        final int rowOffset = visionResidualsLength + VisionFeatures.LENGTH;
+
+        visionResiduals[rowOffset] = rejectionReason == null ? ACCEPTED_VISION_RESIDUAL : rejectionReason.ordinal();
+        visionResiduals[rowOffset + 1] = robotPose.getX() - estimateAtTime[0];
+        visionResiduals[rowOffset + 2] = robotPose.getY() - estimateAtTime[1];
+        visionResiduals[rowOffset + 3] = MathUtil.angleModulus(robotPose.getRotation().getZ() - estimateAtTime[2]);
 
-        return VecBuilder.fill(translationStd, translationStd, thetaStd);
+        visionResidualsLength += VISION_RESIDUALS_ROW_LENGTH;
     }
 
     private void putAprilTagsOnFieldWidget() {
-        for (Map.Entry<Integer, Pose3d> entry : TAG_ID_TO_POSE.entrySet()) {
-            field.getObject("Tag " + entry.getKey()).setPose(entry.getValue().toPose2d());
+        for (int id = 0; id <= TAG_TABLE.getMaximumId(); id++) {
+            if (TAG_TABLE.hasTag(id))
+                field.getObject("Tag " + id).setPose(TAG_TABLE.getPose2d(id));
         }
     }
 }
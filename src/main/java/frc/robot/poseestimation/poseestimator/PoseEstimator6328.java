@@ -1,27 +1,21 @@
 package frc.robot.poseestimation.poseestimator;
 
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.Nat;
-import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Transform2d;
-import edu.wpi.first.math.geometry.Twist2d;
-import edu.wpi.first.math.interpolation.TimeInterpolatableBuffer;
-import edu.wpi.first.math.kinematics.SwerveDriveWheelPositions;
-import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
+import frc.lib.math.AdvancedSwerveKinematics;
 import org.littletonrobotics.junction.AutoLogOutput;
 
-import java.util.NoSuchElementException;
-
-import static frc.robot.subsystems.swerve.SwerveConstants.SWERVE_KINEMATICS;
+import static frc.robot.GlobalConstants.MAXIMUM_ODOMETRY_FREQUENCY_HERTZ;
+import static frc.robot.poseestimation.poseestimator.PoseEstimatorConstants.*;
+import static frc.robot.subsystems.swerve.SwerveConstants.MODULE_LOCATIONS;
 
 public class PoseEstimator6328 {
-    public record OdometryObservation(SwerveDriveWheelPositions wheelPositions, Rotation2d gyroAngle, double timestamp) { }
-    public record VisionObservation(Pose2d visionPose, double timestamp, Matrix<N3, N1> stdDevs) { }
-
     private static final double POSE_BUFFER_SIZE_SECONDS = 2.0;
 
     private static PoseEstimator6328 instance;
@@ -31,24 +25,38 @@ public class PoseEstimator6328 {
         return instance;
     }
 
-    // Pose Estimation Members
-    private Pose2d odometryPose = new Pose2d();
-    private Pose2d estimatedPose = new Pose2d();
+    // Pose Estimation Members, as {x, y, theta}. Pose2d objects are only built when the poses are read.
+    private final double[] odometryPose = new double[3];
+    private final double[] estimatedPose = new double[3];
+
+    private Pose2d odometryPoseObject = new Pose2d();
+    private Pose2d estimatedPoseObject = new Pose2d();
+    private boolean odometryPoseChanged = false, estimatedPoseChanged = false;
 
-    private final TimeInterpolatableBuffer<Pose2d> poseBuffer = TimeInterpolatableBuffer.createBuffer(POSE_BUFFER_SIZE_SECONDS);
+    private static final int POSE_BUFFER_CAPACITY = (int) Math.ceil(POSE_BUFFER_SIZE_SECONDS * MAXIMUM_ODOMETRY_FREQUENCY_HERTZ) + 1;
+
+    private final PoseHistoryBuffer poseBuffer = new PoseHistoryBuffer(POSE_BUFFER_SIZE_SECONDS, POSE_BUFFER_CAPACITY);
+    private final KalmanPoseEstimator kalmanPoseEstimator = new KalmanPoseEstimator(
+            POSE_BUFFER_SIZE_SECONDS, POSE_BUFFER_CAPACITY, KALMAN_ODOMETRY_STD_DEVS_PER_MOTION, KALMAN_INITIAL_STD_DEVS);
     private final Matrix<N3, N1> qStdDevs = new Matrix<>(Nat.N3(), Nat.N1());
 
     // Odometry
-    private SwerveDriveWheelPositions lastWheelPositions =
-            new SwerveDriveWheelPositions(
-                    new SwerveModulePosition[]{
-                            new SwerveModulePosition(),
-                            new SwerveModulePosition(),
-                            new SwerveModulePosition(),
-                            new SwerveModulePosition()
-                    });
+    private final SwerveOdometryIntegrator odometryIntegrator = new SwerveOdometryIntegrator(MODULE_LOCATIONS);
+
+    // The odometry noise multiplier the closed-form gain assumes, decaying back to 1 after degraded samples
+    private double closedFormNoiseMultiplier = 1;
+    private double lastOdometryTimestamp = 0;
+    private long mergedOdometrySamples = 0;
 
-    private Rotation2d lastGyroAngle = new Rotation2d();
+    // Preallocated {x, y, theta} poses and transforms, so vision updates don't allocate
+    private final double[]
+            sampledPose = new double[3],
+            estimateAtTime = new double[3],
+            visionPose = new double[3],
+            visionStdDevs = new double[3],
+            transform = new double[3],
+            velocityWindowStart = new double[3],
+            robotRelativeVelocity = new double[3];
 
     private PoseEstimator6328() {
         for (int i = 0; i < 3; ++i) {
@@ -57,112 +65,272 @@ public class PoseEstimator6328 {
     }
 
     /**
-     * Add odometry observation
+     * Add an odometry observation from a sample of the frame.
+     * Samples taken while skidding or colliding aren't dropped - they're trusted less, as rated by the {@link OdometryNoiseModel}.
+     * A sample that isn't newer than the previous one still moves every pose, and is merged into the previous sample's history.
+     *
+     * @param acceleration the horizontal acceleration of the robot around the sample, in metres per second squared
+     * @return the noise multiplier the sample was given
      */
-    public void addOdometryObservation(OdometryObservation observation) {
-        Twist2d twist = SWERVE_KINEMATICS.toTwist2d(lastWheelPositions, observation.wheelPositions());
-        lastWheelPositions = observation.wheelPositions();
-        // Check gyro connected
-        if (observation.gyroAngle != null) {
-            // Update dtheta for twist if gyro connected
-            twist =
-                    new Twist2d(
-                            twist.dx, twist.dy, observation.gyroAngle.minus(lastGyroAngle).getRadians());
-            lastGyroAngle = observation.gyroAngle;
-        }
+    public double addOdometryObservation(SwerveOdometryFrame frame, int sample, double acceleration) {
+        final double timestamp = frame.timestamps[sample];
+        final double[] twist = odometryIntegrator.calculateTwist(frame, sample);
+        final double noiseMultiplier = OdometryNoiseModel.calculateNoiseMultiplier(odometryIntegrator.getSkidRatio(), acceleration);
+
+        if (timestamp <= lastOdometryTimestamp) mergedOdometrySamples++;
 
         // Add twist to odometry pose
-        odometryPose = odometryPose.exp(twist);
+        AdvancedSwerveKinematics.exp(twist[0], twist[1], twist[2], odometryPose);
         // Add pose to buffer at timestamp
-        poseBuffer.addSample(observation.timestamp, odometryPose);
+        poseBuffer.addSample(timestamp, odometryPose[0], odometryPose[1], odometryPose[2]);
         // Calculate diff from last odometry pose and add onto pose estimate
-        estimatedPose = estimatedPose.exp(twist);
+        if (ESTIMATOR_MODE == EstimatorMode.FULL_KALMAN) {
+            kalmanPoseEstimator.addOdometryTwist(timestamp, twist[0], twist[1], twist[2], noiseMultiplier);
+            kalmanPoseEstimator.getEstimatedPose(estimatedPose);
+        } else {
+            AdvancedSwerveKinematics.exp(twist[0], twist[1], twist[2], estimatedPose);
+
+            final double decay = Math.exp(-Math.max(0, timestamp - lastOdometryTimestamp) / ODOMETRY_NOISE_RECOVERY_SECONDS);
+            closedFormNoiseMultiplier = Math.max(noiseMultiplier, 1 + (closedFormNoiseMultiplier - 1) * decay);
+        }
+
+        lastOdometryTimestamp = Math.max(lastOdometryTimestamp, timestamp);
+        odometryPoseChanged = true;
+        estimatedPoseChanged = true;
+
+        return noiseMultiplier;
     }
 
-    public void addVisionObservation(VisionObservation observation) {
-        // If measurement is old enough to be outside the pose buffer's timespan, skip.
-        try {
-            if (poseBuffer.getInternalBuffer().lastKey() - POSE_BUFFER_SIZE_SECONDS
-                    > observation.timestamp) {
-                return;
-            }
-        } catch (NoSuchElementException ex) {
+    /**
+     * Fuses every vision observation of the loop.
+     *
+     * @param observations the observations, sorted from oldest to newest
+     */
+    public void addVisionObservations(VisionObservationBatch observations) {
+        if (observations.size == 0) return;
+
+        if (ESTIMATOR_MODE == EstimatorMode.FULL_KALMAN) {
+            if (kalmanPoseEstimator.addVisionObservations(observations) == 0) return;
+
+            kalmanPoseEstimator.getEstimatedPose(estimatedPose);
+            estimatedPoseChanged = true;
             return;
         }
+
+        for (int i = 0; i < observations.size; i++) {
+            addVisionObservation(
+                    observations.timestamps[i], observations.x[i], observations.y[i], observations.theta[i],
+                    observations.xStdDevs[i], observations.yStdDevs[i], observations.thetaStdDevs[i]
+            );
+        }
+    }
+
+    /**
+     * The closed-form gain works on the transform between the estimate and odometry, so it needs no replay -
+     * each observation only costs a lookup in the pose buffer.
+     */
+    private void addVisionObservation(double timestamp, double x, double y, double theta, double xStdDev, double yStdDev, double thetaStdDev) {
+        // If measurement is old enough to be outside the pose buffer's timespan, skip.
+        if (poseBuffer.isEmpty() || poseBuffer.getLatestTimestamp() - POSE_BUFFER_SIZE_SECONDS > timestamp)
+            return;
         // Get odometry based pose at timestamp
-        final var sample = poseBuffer.getSample(observation.timestamp);
+        if (!poseBuffer.sample(timestamp, sampledPose)) return;
 
-        if (sample.isEmpty()) return;
+        System.arraycopy(estimatedPose, 0, estimateAtTime, 0, 3);
 
-        // sample --> odometryPose transform and backwards of that
-        final var sampleToOdometryTransform = new Transform2d(sample.get(), odometryPose);
-        final var odometryToSampleTransform = new Transform2d(odometryPose, sample.get());
-        // get old estimate by applying odometryToSample Transform
-        final Pose2d estimateAtTime = estimatedPose.plus(odometryToSampleTransform);
+        visionPose[0] = x;
+        visionPose[1] = y;
+        visionPose[2] = theta;
 
-        // Calculate 3 x 3 vision matrix
-        final var r = new double[3];
+        visionStdDevs[0] = xStdDev;
+        visionStdDevs[1] = yStdDev;
+        visionStdDevs[2] = thetaStdDev;
+
+        // get old estimate by applying the odometry --> sample transform
+        getTransform(odometryPose, sampledPose, transform);
+        applyTransform(estimateAtTime, transform);
 
-        for (int i = 0; i < 3; ++i) {
-            r[i] = observation.stdDevs.get(i, 0) * observation.stdDevs.get(i, 0);
-        }
         // Solve for closed form Kalman gain for continuous Kalman filter with A = 0
         // and C = I. See wpimath/algorithms.md.
-        final Matrix<N3, N3> visionK = new Matrix<>(Nat.N3(), Nat.N3());
+        // difference between estimate and vision pose, scaled by visionK
+        getTransform(estimateAtTime, visionPose, transform);
+
+        final double noiseVarianceMultiplier = closedFormNoiseMultiplier * closedFormNoiseMultiplier;
 
         for (int row = 0; row < 3; ++row) {
-            final double stdDev = qStdDevs.get(row, 0);
-            if (stdDev == 0.0) {
-                visionK.set(row, row, 0.0);
-            } else {
-                visionK.set(row, row, stdDev / (stdDev + Math.sqrt(stdDev * r[row])));
-            }
+            final double stdDev = qStdDevs.get(row, 0) * noiseVarianceMultiplier;
+            final double r = visionStdDevs[row] * visionStdDevs[row];
+
+            transform[row] *= stdDev == 0.0 ? 0.0 : stdDev / (stdDev + Math.sqrt(stdDev * r));
         }
-        // difference between estimate and vision pose
-        final Transform2d transform = new Transform2d(estimateAtTime, observation.visionPose);
-        // scale transform by visionK
-        final var kTimesTransform =
-                visionK.times(
-                        VecBuilder.fill(
-                                transform.getX(), transform.getY(), transform.getRotation().getRadians()));
-
-        final Transform2d scaledTransform =
-                new Transform2d(
-                        kTimesTransform.get(0, 0),
-                        kTimesTransform.get(1, 0),
-                        Rotation2d.fromRadians(kTimesTransform.get(2, 0)));
 
         // Recalculate current estimate by applying scaled transform to old estimate
         // then replaying odometry data
-        estimatedPose = estimateAtTime.plus(scaledTransform).plus(sampleToOdometryTransform);
+        applyTransform(estimateAtTime, transform);
+        getTransform(sampledPose, odometryPose, transform);
+        applyTransform(estimateAtTime, transform);
+
+        System.arraycopy(estimateAtTime, 0, estimatedPose, 0, 3);
+        estimatedPoseChanged = true;
+    }
+
+    /**
+     * @return the amount of odometry samples that weren't newer than the sample before them, since the robot started
+     */
+    public long getMergedOdometrySamples() {
+        return mergedOdometrySamples;
     }
 
     public Pose2d samplePose(double timestamp) {
-        Pose2d sample = poseBuffer.getSample(timestamp).orElse(new Pose2d());
-        Transform2d odometryToSampleTransform = new Transform2d(odometryPose, sample);
+        if (!sampleEstimatedPose(timestamp, estimateAtTime)) estimateAtTime[0] = estimateAtTime[1] = estimateAtTime[2] = 0;
 
-        return estimatedPose.plus(odometryToSampleTransform);
+        return new Pose2d(estimateAtTime[0], estimateAtTime[1], Rotation2d.fromRadians(estimateAtTime[2]));
     }
 
+    /**
+     * Writes the estimated pose at the given timestamp into the given array, as {x, y, theta}.
+     *
+     * @return false if there is no odometry history yet, in which case nothing is written
+     */
+    public boolean sampleEstimatedPose(double timestamp, double[] result) {
+        if (!poseBuffer.sample(timestamp, sampledPose)) return false;
+
+        System.arraycopy(estimatedPose, 0, result, 0, 3);
+
+        getTransform(odometryPose, sampledPose, transform);
+        applyTransform(result, transform);
+
+        return true;
+    }
+
+    /**
+     * @return the standard deviation of the current estimate along the given axis (0 = x, 1 = y, 2 = theta).
+     * In {@link EstimatorMode#CLOSED_FORM_GAIN}, which keeps no covariance, this is {@link PoseEstimatorConstants#CLOSED_FORM_ESTIMATE_STD_DEVS}
+     */
+    public double getEstimateStdDev(int axis) {
+        if (ESTIMATOR_MODE == EstimatorMode.FULL_KALMAN) return kalmanPoseEstimator.getStdDev(axis);
+
+        return CLOSED_FORM_ESTIMATE_STD_DEVS[axis];
+    }
+
+    /**
+     * Used by {@link EstimatorMode#FULL_KALMAN} - see {@link KalmanPoseEstimator#calculateSquaredMahalanobisDistance}.
+     */
+    public double calculateSquaredMahalanobisDistance(double timestamp, double xError, double yError, double thetaError,
+                                                      double xStdDev, double yStdDev, double thetaStdDev) {
+        return kalmanPoseEstimator.calculateSquaredMahalanobisDistance(timestamp, xError, yError, thetaError, xStdDev, yStdDev, thetaStdDev);
+    }
+
+    /**
+     * Predicts the estimated pose at a later time, assuming the robot keeps its recent velocity.
+     *
+     * @param timestamp the timestamp to predict the pose at. Should be after the latest odometry sample
+     * @param result    an array of at least 3 elements to write the pose into, as {x, y, theta}
+     */
+    public void predictEstimatedPose(double timestamp, double[] result) {
+        System.arraycopy(estimatedPose, 0, result, 0, 3);
+
+        if (!calculateRobotRelativeVelocity(robotRelativeVelocity)) return;
+
+        final double predictionSeconds = MathUtil.clamp(timestamp - poseBuffer.getLatestTimestamp(), 0, MAXIMUM_PREDICTION_SECONDS);
+
+        AdvancedSwerveKinematics.exp(
+                robotRelativeVelocity[0] * predictionSeconds,
+                robotRelativeVelocity[1] * predictionSeconds,
+                robotRelativeVelocity[2] * predictionSeconds,
+                result
+        );
+    }
+
+    /**
+     * Writes the average velocity of the latest {@link PoseEstimatorConstants#PREDICTION_VELOCITY_WINDOW_SECONDS} of odometry,
+     * as a constant curvature motion relative to the robot - {vx, vy, omega}.
+     *
+     * @return false if there isn't enough odometry history, in which case the velocity is 0
+     */
+    public boolean calculateRobotRelativeVelocity(double[] result) {
+        result[0] = result[1] = result[2] = 0;
+
+        if (poseBuffer.isEmpty()) return false;
+
+        final double latestTimestamp = poseBuffer.getLatestTimestamp();
+        final double windowStartTimestamp = Math.max(latestTimestamp - PREDICTION_VELOCITY_WINDOW_SECONDS, poseBuffer.getOldestTimestamp());
+        final double windowSeconds = latestTimestamp - windowStartTimestamp;
+
+        if (windowSeconds <= 0 || !poseBuffer.sample(windowStartTimestamp, velocityWindowStart)) return false;
+
+        // The odometry pose is the latest sample in the buffer
+        getTransform(velocityWindowStart, odometryPose, transform);
+        AdvancedSwerveKinematics.log(transform[0], transform[1], transform[2], result);
+
+        for (int i = 0; i < 3; i++)
+            result[i] /= windowSeconds;
+
+        return true;
+    }
+
+    private static void toArray(Pose2d pose, double[] result) {
+        result[0] = pose.getX();
+        result[1] = pose.getY();
+        result[2] = pose.getRotation().getRadians();
+    }
+
+    /**
+     * Writes the transform from one {x, y, theta} pose to another, relative to the first pose, like {@link Transform2d#Transform2d(Pose2d, Pose2d)}.
+     */
+    private static void getTransform(double[] from, double[] to, double[] result) {
+        final double cos = Math.cos(from[2]), sin = Math.sin(from[2]);
+        final double dx = to[0] - from[0], dy = to[1] - from[1];
+
+        result[0] = cos * dx + sin * dy;
+        result[1] = -sin * dx + cos * dy;
+        result[2] = MathUtil.angleModulus(to[2] - from[2]);
+    }
+
+    /**
+     * Applies a transform to an {x, y, theta} pose in place, like {@link Pose2d#plus(Transform2d)}.
+     */
+    private static void applyTransform(double[] pose, double[] transform) {
+        final double cos = Math.cos(pose[2]), sin = Math.sin(pose[2]);
+
+        pose[0] += cos * transform[0] - sin * transform[1];
+        pose[1] += sin * transform[0] + cos * transform[1];
+        pose[2] += transform[2];
+    }
 
     /**
      * Reset estimated pose and odometry pose to pose <br>
      * Clear pose buffer
      */
     public void resetPose(Pose2d initialPose) {
-        estimatedPose = initialPose;
-        lastGyroAngle = initialPose.getRotation();
-        odometryPose = initialPose;
+        toArray(initialPose, estimatedPose);
+        toArray(initialPose, odometryPose);
+        odometryIntegrator.resetGyroYaw(initialPose.getRotation().getRadians());
         poseBuffer.clear();
+        closedFormNoiseMultiplier = 1;
+        kalmanPoseEstimator.resetPose(estimatedPose[0], estimatedPose[1], estimatedPose[2]);
+
+        odometryPoseChanged = true;
+        estimatedPoseChanged = true;
     }
 
     @AutoLogOutput(key = "Poses/Robot/EstimatedPose")
     public Pose2d getEstimatedPose() {
-        return estimatedPose;
+        if (estimatedPoseChanged) {
+            estimatedPoseObject = new Pose2d(estimatedPose[0], estimatedPose[1], Rotation2d.fromRadians(estimatedPose[2]));
+            estimatedPoseChanged = false;
+        }
+
+        return estimatedPoseObject;
     }
 
     @AutoLogOutput(key = "Poses/Robot/OdometryPose")
     public Pose2d getOdometryPose() {
-        return odometryPose;
+        if (odometryPoseChanged) {
+            odometryPoseObject = new Pose2d(odometryPose[0], odometryPose[1], Rotation2d.fromRadians(odometryPose[2]));
+            odometryPoseChanged = false;
+        }
+
+        return odometryPoseObject;
     }
 }
@@ -1,11 +1,9 @@
 package frc.robot.poseestimation.poseestimator;
 
-import edu.wpi.first.apriltag.AprilTag;
 import edu.wpi.first.apriltag.AprilTagFieldLayout;
 import edu.wpi.first.apriltag.AprilTagFields;
 import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.Vector;
-import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.geometry.Transform3d;
 import edu.wpi.first.math.numbers.N3;
@@ -15,9 +13,6 @@ import frc.robot.poseestimation.photoncamera.PhotonCameraIO;
 import org.photonvision.PhotonPoseEstimator;
 import org.photonvision.estimation.TargetModel;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class PoseEstimatorConstants {
     static final Transform3d ROBOT_TO_FRONT_CAMERA = new Transform3d(
             0.27, 0.37, 0.19,
@@ -34,11 +29,116 @@ public class PoseEstimatorConstants {
      */
     static final Vector<N3> ODOMETRY_AMBIGUITY = VecBuilder.fill(0.003, 0.003, 0.001);
 
+    /**
+     * How vision measurements are fused into the estimate.
+     * {@link EstimatorMode#CLOSED_FORM_GAIN} uses a fixed diagonal gain computed from {@link #ODOMETRY_AMBIGUITY}.
+     * {@link EstimatorMode#FULL_KALMAN} keeps a full covariance that grows with the robot's motion,
+     * fuses each measurement at its timestamp and replays the odometry that came after it.
+     */
+    static final EstimatorMode ESTIMATOR_MODE = EstimatorMode.CLOSED_FORM_GAIN;
+
+    public enum EstimatorMode {
+        CLOSED_FORM_GAIN,
+        FULL_KALMAN
+    }
+
+    /**
+     * Used by {@link EstimatorMode#FULL_KALMAN}.
+     * The standard deviations the odometry gains per metre driven (x, y, relative to the robot) and per radian rotated (theta),
+     * and the standard deviations of the estimate after resetting the pose.
+     */
+    static final double[]
+            KALMAN_ODOMETRY_STD_DEVS_PER_MOTION = {0.02, 0.02, 0.01},
+            KALMAN_INITIAL_STD_DEVS = {0.05, 0.05, 0.02};
+
+    /**
+     * How odometry samples taken while skidding or colliding are trusted less - see {@link OdometryNoiseModel}.
+     * The process noise is multiplied by 1 + the skid gain per unit of skid ratio above 1,
+     * + the acceleration gain at {@link frc.robot.GlobalConstants#MINIMUM_ACCELERATION_FOR_COLLISION}, linearly from the nominal acceleration.
+     */
+    static final double
+            ODOMETRY_SKID_NOISE_GAIN = 4,
+            MAXIMUM_SKID_RATIO = 5,
+            MINIMUM_SKID_TRANSLATION_METRES = 0.0005,
+            ODOMETRY_ACCELERATION_NOISE_GAIN = 10,
+            NOMINAL_ACCELERATION_METRES_PER_SECOND_SQUARED = 8,
+            MAXIMUM_ODOMETRY_NOISE_MULTIPLIER = 50;
+
+    /**
+     * Used by {@link EstimatorMode#CLOSED_FORM_GAIN}, which has no covariance to carry the extra noise -
+     * instead, the odometry noise it assumes decays back from the latest inflated value with this time constant.
+     */
+    static final double ODOMETRY_NOISE_RECOVERY_SECONDS = 1;
+
+    /**
+     * Predicted poses assume the robot keeps the average velocity of this much recent odometry,
+     * and are never predicted further than the maximum into the future.
+     */
+    static final double
+            PREDICTION_VELOCITY_WINDOW_SECONDS = 0.1,
+            MAXIMUM_PREDICTION_SECONDS = 0.5;
+
     static final double TRANSLATION_STD_EXPONENT = 0.005;
     static final double ROTATION_STD_EXPONENT = 0.01;
 
+    /**
+     * The coefficients of the {@link TagAwareStdDevModel}, per camera, in the order the cameras are given to the {@link PoseEstimator}.
+     * Until they're fitted with {@link VisionStdDevCalibration}, they reproduce the distance-only model.
+     */
+    static final double[][]
+            VISION_TRANSLATION_STD_DEV_COEFFICIENTS = {{0, TRANSLATION_STD_EXPONENT, 0, 0}},
+            VISION_ROTATION_STD_DEV_COEFFICIENTS = {{0, ROTATION_STD_EXPONENT, 0, 0}};
+
+    /**
+     * Use <code>new DistanceStdDevModel(TRANSLATION_STD_EXPONENT, ROTATION_STD_EXPONENT)</code> to only account for the distance and tag count.
+     */
+    static final VisionStdDevModel VISION_STD_DEV_MODEL = new TagAwareStdDevModel(
+            VISION_TRANSLATION_STD_DEV_COEFFICIENTS,
+            VISION_ROTATION_STD_DEV_COEFFICIENTS
+    );
+
+    /**
+     * Every vision observation, gated or not, is logged under this key for {@link VisionStdDevCalibration}.
+     * Each is a row of its {@link VisionFeatures}, the ordinal of the {@link VisionGate.RejectionReason} it was rejected for
+     * (or {@link #ACCEPTED_VISION_RESIDUAL} if it was accepted), and its {x, y, theta} residual.
+     */
+    static final String VISION_RESIDUALS_LOG_KEY = "PoseEstimator/VisionResiduals";
+    static final int VISION_RESIDUALS_ROW_LENGTH = VisionFeatures.LENGTH + 4;
+    static final int ACCEPTED_VISION_RESIDUAL = -1;
+
     public static final double MAXIMUM_AMBIGUITY = 0.2;
 
+    /**
+     * The most observations a single camera can contribute to the vision batch of one loop.
+     * Cameras queue no more results than this between loops, so only a stalled loop drops observations.
+     */
+    public static final int MAXIMUM_VISION_OBSERVATIONS_PER_CAMERA = 8;
+
+    /**
+     * Vision gating - see {@link VisionGate}. Set a limit to {@link Double#POSITIVE_INFINITY} to disable its check.
+     */
+    static final double
+            VISION_FIELD_MARGIN_METRES = 0.5,
+            MAXIMUM_VISION_HEIGHT_METRES = 0.5,
+            MAXIMUM_VISION_TILT_RADIANS = Units.degreesToRadians(10),
+            MAXIMUM_VISION_MAHALANOBIS_DISTANCE = 3.37, // sqrt of the 99% chi-squared quantile for 3 degrees of freedom
+            MAXIMUM_VISION_SPEED_RATIO = 1.5,
+            MINIMUM_VISION_SPEED_CHECK_WINDOW_SECONDS = 0.1,
+            VISION_SPEED_CHECK_WINDOW_SECONDS = 0.5,
+            VISION_SPEED_STD_DEV_ALLOWANCE = 2; // How many standard deviations of both observations a jump may be put down to noise
+
+    /**
+     * After this many consecutive Mahalanobis rejections, a camera's observations are accepted anyway,
+     * until one of them agrees with the estimate on its own - if every frame disagrees with the estimate, the estimate is what's wrong.
+     */
+    static final int MAXIMUM_CONSECUTIVE_MAHALANOBIS_REJECTIONS = 25;
+
+    /**
+     * The standard deviations of the estimate used for the Mahalanobis gate in {@link EstimatorMode#CLOSED_FORM_GAIN},
+     * which doesn't track a covariance.
+     */
+    static final double[] CLOSED_FORM_ESTIMATE_STD_DEVS = {0.3, 0.3, 0.1};
+
     public static final TargetModel TAG_MODEL = TargetModel.kAprilTag36h11;
 
     public static final PhotonPoseEstimator.PoseStrategy
@@ -46,11 +146,5 @@ public class PoseEstimatorConstants {
             SECONDARY_POSE_STRATEGY = PhotonPoseEstimator.PoseStrategy.LOWEST_AMBIGUITY;
 
     public static final AprilTagFieldLayout APRIL_TAG_FIELD_LAYOUT = AprilTagFields.k2024Crescendo.loadAprilTagLayoutField();
-    public static final Map<Integer, Pose3d> TAG_ID_TO_POSE = new HashMap<>();
-
-    static {
-        for (AprilTag aprilTag : APRIL_TAG_FIELD_LAYOUT.getTags())
-            TAG_ID_TO_POSE.put(aprilTag.ID, aprilTag.pose);
-    }
+    public static final AprilTagTable TAG_TABLE = new AprilTagTable(APRIL_TAG_FIELD_LAYOUT);
 }
-
@@ -0,0 +1,144 @@
+package frc.robot.poseestimation.poseestimator;
+
+import edu.wpi.first.math.MathUtil;
+
+/**
+ * A fixed-capacity circular buffer of timestamped poses, stored as parallel primitive arrays.
+ * <p>
+ * Replaces {@link edu.wpi.first.math.interpolation.TimeInterpolatableBuffer TimeInterpolatableBuffer&lt;Pose2d&gt;},
+ * which boxes every timestamp and allocates a tree node and a pose per sample.
+ * Adding and sampling poses here allocates nothing, and lookups are a binary search over contiguous arrays.
+ * <p>
+ * Samples are interpolated linearly, with the shortest rotation between them.
+ * Between two odometry samples a few milliseconds apart, this matches {@link edu.wpi.first.math.geometry.Pose2d#interpolate}.
+ */
+public class PoseHistoryBuffer {
+    private final double historySeconds;
+
+    private final double[] timestamps, xs, ys, thetas;
+
+    /** Physical index of the oldest sample */
+    private int start = 0;
+    private int size = 0;
+
+    /**
+     * @param historySeconds how long to keep samples for, relative to the latest sample
+     * @param capacity       the maximum amount of samples to keep, regardless of their age
+     */
+    public PoseHistoryBuffer(double historySeconds, int capacity) {
+        this.historySeconds = historySeconds;
+
+        timestamps = new double[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        thetas = new double[capacity];
+    }
+
+    /**
+     * Adds a pose to the buffer. A sample that isn't newer than the latest sample replaces the latest sample's pose,
+     * but keeps its timestamp - so the latest sample is always the latest pose, and timestamps never go backwards.
+     */
+    public void addSample(double timestamp, double x, double y, double thetaRadians) {
+        if (size > 0 && timestamp <= getLatestTimestamp()) {
+            final int latestIndex = toPhysicalIndex(size - 1);
+
+            xs[latestIndex] = x;
+            ys[latestIndex] = y;
+            thetas[latestIndex] = thetaRadians;
+            return;
+        }
+
+        if (size == timestamps.length) removeOldest();
+
+        final int index = toPhysicalIndex(size);
+
+        timestamps[index] = timestamp;
+        xs[index] = x;
+        ys[index] = y;
+        thetas[index] = thetaRadians;
+
+        size++;
+
+        while (size > 1 && timestamps[start] < timestamp - historySeconds)
+            removeOldest();
+    }
+
+    /**
+     * Writes the pose at the given timestamp into the given array, as {x, y, theta}.
+     * Timestamps outside the buffer are clamped to the oldest or latest sample.
+     *
+     * @param timestamp the timestamp to sample at
+     * @param result    an array of at least 3 elements to write the pose into
+     * @return false if the buffer is empty, in which case nothing is written
+     */
+    public boolean sample(double timestamp, double[] result) {
+        if (size == 0) return false;
+
+        if (timestamp <= timestamps[start]) {
+            writeSample(start, result);
+            return true;
+        }
+
+        if (timestamp >= getLatestTimestamp()) {
+            writeSample(toPhysicalIndex(size - 1), result);
+            return true;
+        }
+
+        // Find the first sample after the timestamp. The first sample is known to be before it, and the last after it.
+        int low = 1, high = size - 1;
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (timestamps[toPhysicalIndex(middle)] <= timestamp) low = middle + 1;
+            else high = middle;
+        }
+
+        final int after = toPhysicalIndex(low), before = toPhysicalIndex(low - 1);
+        final double t = (timestamp - timestamps[before]) / (timestamps[after] - timestamps[before]);
+
+        result[0] = xs[before] + (xs[after] - xs[before]) * t;
+        result[1] = ys[before] + (ys[after] - ys[before]) * t;
+        result[2] = thetas[before] + MathUtil.angleModulus(thetas[after] - thetas[before]) * t;
+
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the timestamp of the oldest sample. Only valid if the buffer isn't empty
+     */
+    public double getOldestTimestamp() {
+        return timestamps[start];
+    }
+
+    /**
+     * @return the timestamp of the latest sample. Only valid if the buffer isn't empty
+     */
+    public double getLatestTimestamp() {
+        return timestamps[toPhysicalIndex(size - 1)];
+    }
+
+    public void clear() {
+        start = 0;
+        size = 0;
+    }
+
+    private void writeSample(int index, double[] result) {
+        result[0] = xs[index];
+        result[1] = ys[index];
+        result[2] = thetas[index];
+    }
+
+    private void removeOldest() {
+        start = (start + 1) % timestamps.length;
+        size--;
+    }
+
+    private int toPhysicalIndex(int logicalIndex) {
+        return (start + logicalIndex) % timestamps.length;
+    }
+}
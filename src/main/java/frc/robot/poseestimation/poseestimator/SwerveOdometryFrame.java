@@ -0,0 +1,36 @@
+package frc.robot.poseestimation.poseestimator;
+
+/**
+ * The odometry samples gathered since the last main loop, stored as a struct of arrays.
+ * The i-th element of every array was sampled in the same odometry thread tick, at {@code timestamps[i]}.
+ * <p>
+ * The arrays are preallocated and reused every loop - only the first {@link #size} elements are valid.
+ */
+public class SwerveOdometryFrame {
+    public final double[] timestamps;
+    public final double[] gyroYawDegrees;
+
+    /** Indexed by [module][sample] */
+    public final double[][] moduleDistancesMetres, moduleAnglesRotations;
+
+    /** The amount of valid samples in the arrays */
+    public int size = 0;
+
+    /** The amount of samples the odometry thread dropped since the previous frame, as the main loop didn't drain them in time */
+    public long droppedSamples = 0;
+
+    /** The amount of timestamps that had no matching sample in one of the signals, and were thus discarded */
+    public int misalignedSamples = 0;
+
+    public SwerveOdometryFrame(int modules, int capacity) {
+        timestamps = new double[capacity];
+        gyroYawDegrees = new double[capacity];
+
+        moduleDistancesMetres = new double[modules][capacity];
+        moduleAnglesRotations = new double[modules][capacity];
+    }
+
+    public int getCapacity() {
+        return timestamps.length;
+    }
+}
@@ -0,0 +1,126 @@
+package frc.robot.poseestimation.poseestimator;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Translation2d;
+import org.ejml.simple.SimpleMatrix;
+
+import static frc.robot.poseestimation.poseestimator.PoseEstimatorConstants.MINIMUM_SKID_TRANSLATION_METRES;
+
+/**
+ * Turns the samples of a {@link SwerveOdometryFrame} into twists, reading the module distances, angles and gyro yaws as doubles.
+ * <p>
+ * This is {@link edu.wpi.first.math.kinematics.SwerveDriveKinematics#toTwist2d SwerveDriveKinematics.toTwist2d}
+ * with the rotation taken from the gyro, but without building any {@code SwerveModulePosition}, {@code Rotation2d} or {@code Twist2d}.
+ * <p>
+ * Every sample's skidding ratio is calculated along the way, like {@link frc.lib.math.Optimizations#getSkiddingRatio}.
+ */
+public class SwerveOdometryIntegrator {
+    /** The pseudo-inverse of the inverse kinematics, indexed by [dx, dy, dtheta][module x/y] */
+    private final double[][] forwardKinematics;
+
+    private final Translation2d[] moduleLocations;
+
+    private final double[] lastDistancesMetres;
+    private double lastGyroYawRadians = 0;
+
+    private final double[] moduleDeltaXs, moduleDeltaYs;
+    private final double[] twist = new double[3];
+    private double skidRatio = 1;
+
+    public SwerveOdometryIntegrator(Translation2d... moduleLocations) {
+        this.moduleLocations = moduleLocations;
+
+        final SimpleMatrix inverseKinematics = new SimpleMatrix(moduleLocations.length * 2, 3);
+
+        for (int module = 0; module < moduleLocations.length; module++) {
+            inverseKinematics.setRow(module * 2, 0, 1, 0, -moduleLocations[module].getY());
+            inverseKinematics.setRow(module * 2 + 1, 0, 0, 1, moduleLocations[module].getX());
+        }
+
+        final SimpleMatrix pseudoInverse = inverseKinematics.pseudoInverse();
+
+        forwardKinematics = new double[3][moduleLocations.length * 2];
+
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < moduleLocations.length * 2; column++)
+                forwardKinematics[row][column] = pseudoInverse.get(row, column);
+        }
+
+        lastDistancesMetres = new double[moduleLocations.length];
+        moduleDeltaXs = new double[moduleLocations.length];
+        moduleDeltaYs = new double[moduleLocations.length];
+    }
+
+    /**
+     * Calculates the motion since the previous sample, and remembers this sample as the previous one.
+     *
+     * @param frame  the frame holding the sample
+     * @param sample the index of the sample in the frame
+     * @return the twist as {dx, dy, dtheta}. The array is reused by the next call
+     */
+    public double[] calculateTwist(SwerveOdometryFrame frame, int sample) {
+        twist[0] = twist[1] = 0;
+        double wheelRotation = 0;
+
+        for (int module = 0; module < lastDistancesMetres.length; module++) {
+            final double distance = frame.moduleDistancesMetres[module][sample];
+            final double angleRadians = frame.moduleAnglesRotations[module][sample] * 2 * Math.PI;
+            final double delta = distance - lastDistancesMetres[module];
+
+            final double deltaX = delta * Math.cos(angleRadians), deltaY = delta * Math.sin(angleRadians);
+
+            for (int row = 0; row < 2; row++)
+                twist[row] += forwardKinematics[row][module * 2] * deltaX + forwardKinematics[row][module * 2 + 1] * deltaY;
+
+            wheelRotation += forwardKinematics[2][module * 2] * deltaX + forwardKinematics[2][module * 2 + 1] * deltaY;
+
+            moduleDeltaXs[module] = deltaX;
+            moduleDeltaYs[module] = deltaY;
+            lastDistancesMetres[module] = distance;
+        }
+
+        skidRatio = calculateSkidRatio(wheelRotation);
+
+        final double gyroYawRadians = Math.toRadians(frame.gyroYawDegrees[sample]);
+
+        twist[2] = MathUtil.angleModulus(gyroYawRadians - lastGyroYawRadians);
+        lastGyroYawRadians = gyroYawRadians;
+
+        return twist;
+    }
+
+    /**
+     * @return the skidding ratio of the latest sample - the ratio between the largest and smallest translational motion of the modules,
+     * after removing the rotation the wheels measured. Ranges from 1 (no skidding) to infinity.
+     * Samples with barely any motion are 1
+     */
+    public double getSkidRatio() {
+        return skidRatio;
+    }
+
+    private double calculateSkidRatio(double wheelRotation) {
+        double maximumTranslation = 0, minimumTranslation = Double.POSITIVE_INFINITY;
+
+        for (int module = 0; module < moduleLocations.length; module++) {
+            // The rotational motion of a module is the rotation times its location, rotated by 90 degrees
+            final double translationX = moduleDeltaXs[module] + wheelRotation * moduleLocations[module].getY();
+            final double translationY = moduleDeltaYs[module] - wheelRotation * moduleLocations[module].getX();
+            final double translation = Math.hypot(translationX, translationY);
+
+            maximumTranslation = Math.max(maximumTranslation, translation);
+            minimumTranslation = Math.min(minimumTranslation, translation);
+        }
+
+        // Too little motion for the ratio to mean anything - this also avoids dividing 0 by 0 when standing still
+        if (maximumTranslation < MINIMUM_SKID_TRANSLATION_METRES) return 1;
+
+        return maximumTranslation / minimumTranslation;
+    }
+
+    /**
+     * Sets the gyro yaw the next sample is compared to, for when the gyro was reset.
+     */
+    public void resetGyroYaw(double gyroYawRadians) {
+        lastGyroYawRadians = gyroYawRadians;
+    }
+}
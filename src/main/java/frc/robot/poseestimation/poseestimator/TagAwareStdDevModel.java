@@ -0,0 +1,70 @@
+package frc.robot.poseestimation.poseestimator;
+
+/**
+ * A standard deviation model that accounts for the viewing angle of the tags, the amount of tags,
+ * the camera the observation came from and the robot's speed.
+ * <p>
+ * Each camera has its own coefficients {c0, c1, c2, c3}, and each standard deviation is
+ * <pre>
+ * (c0 + c1 * d^2 + c2 * d^2 * (1 / cos(angle) - 1) + c3 * speed) / n
+ * </pre>
+ * where n is the amount of tags for theta, and its square for x and y.
+ * The model is linear in its coefficients, so {@link VisionStdDevCalibration} fits them with least squares.
+ */
+public class TagAwareStdDevModel implements VisionStdDevModel {
+    public static final int COEFFICIENT_COUNT = 4;
+
+    /** Fitted coefficients can make a standard deviation negative in odd corners, so it never goes below this */
+    private static final double MINIMUM_STD_DEV = 0.001;
+    /** Past this angle the tags are barely visible, and the angle term stops growing */
+    private static final double MAXIMUM_VIEWING_ANGLE_RADIANS = Math.toRadians(80);
+
+    private final double[][] translationCoefficients, rotationCoefficients;
+    private final double[] terms = new double[COEFFICIENT_COUNT];
+
+    /**
+     * @param translationCoefficients the x and y coefficients of each camera, indexed by camera.
+     *                                Cameras without coefficients of their own use the last ones
+     * @param rotationCoefficients    the theta coefficients of each camera, indexed by camera
+     */
+    public TagAwareStdDevModel(double[][] translationCoefficients, double[][] rotationCoefficients) {
+        this.translationCoefficients = translationCoefficients;
+        this.rotationCoefficients = rotationCoefficients;
+    }
+
+    @Override
+    public void calculateStdDevs(VisionFeatures features, double[] result) {
+        calculateTerms(features, false, terms);
+        result[0] = result[1] = Math.max(MINIMUM_STD_DEV, dot(getCoefficients(translationCoefficients, features.camera), terms));
+
+        calculateTerms(features, true, terms);
+        result[2] = Math.max(MINIMUM_STD_DEV, dot(getCoefficients(rotationCoefficients, features.camera), terms));
+    }
+
+    /**
+     * Writes the terms the coefficients are multiplied by, so the standard deviation is the dot product of the two.
+     */
+    static void calculateTerms(VisionFeatures features, boolean isRotation, double[] result) {
+        final double squaredDistance = features.averageDistanceMetres * features.averageDistanceMetres;
+        final double viewingAngle = Math.min(features.averageViewingAngleRadians, MAXIMUM_VIEWING_ANGLE_RADIANS);
+        final double tagDivisor = isRotation ? features.tagCount : features.tagCount * features.tagCount;
+
+        result[0] = 1 / tagDivisor;
+        result[1] = squaredDistance / tagDivisor;
+        result[2] = squaredDistance * (1 / Math.cos(viewingAngle) - 1) / tagDivisor;
+        result[3] = features.robotSpeedMetresPerSecond / tagDivisor;
+    }
+
+    private static double[] getCoefficients(double[][] coefficientsByCamera, int camera) {
+        return coefficientsByCamera[Math.min(camera, coefficientsByCamera.length - 1)];
+    }
+
+    private static double dot(double[] coefficients, double[] terms) {
+        double sum = 0;
+
+        for (int i = 0; i < COEFFICIENT_COUNT; i++)
+            sum += coefficients[i] * terms[i];
+
+        return sum;
+    }
+}
@@ -0,0 +1,35 @@
+package frc.robot.poseestimation.poseestimator;
+
+/**
+ * What a {@link VisionStdDevModel} knows about a single vision observation.
+ * <p>
+ * A single instance is reused for every observation, so nothing is allocated per observation.
+ */
+public class VisionFeatures {
+    /** The amount of values {@link #writeTo(double[], int)} writes */
+    public static final int LENGTH = 5;
+
+    /** The index of the camera the observation came from, in the order the cameras were given to the {@link PoseEstimator} */
+    public int camera;
+    public int tagCount;
+    public double averageDistanceMetres;
+    /** The average angle between the tags' normals and the direction from the tags to the camera. 0 is head-on */
+    public double averageViewingAngleRadians;
+    public double robotSpeedMetresPerSecond;
+
+    public void writeTo(double[] array, int offset) {
+        array[offset] = camera;
+        array[offset + 1] = tagCount;
+        array[offset + 2] = averageDistanceMetres;
+        array[offset + 3] = averageViewingAngleRadians;
+        array[offset + 4] = robotSpeedMetresPerSecond;
+    }
+
+    public void readFrom(double[] array, int offset) {
+        camera = (int) array[offset];
+        tagCount = (int) array[offset + 1];
+        averageDistanceMetres = array[offset + 2];
+        averageViewingAngleRadians = array[offset + 3];
+        robotSpeedMetresPerSecond = array[offset + 4];
+    }
+}
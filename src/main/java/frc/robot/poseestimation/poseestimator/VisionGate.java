@@ -0,0 +1,184 @@
+package frc.robot.poseestimation.poseestimator;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose3d;
+import org.littletonrobotics.junction.Logger;
+
+import java.util.Arrays;
+
+import static frc.robot.GlobalConstants.FIELD_LENGTH_METRES;
+import static frc.robot.GlobalConstants.FIELD_WIDTH_METRES;
+import static frc.robot.poseestimation.poseestimator.PoseEstimatorConstants.*;
+import static frc.robot.subsystems.swerve.SwerveConstants.MAX_SPEED_MPS;
+
+/**
+ * Rejects vision observations that can't be right, before they reach the {@link PoseEstimator6328}.
+ * <p>
+ * An observation is rejected if it's outside the field, floating or tilted (the robot is always flat on the carpet),
+ * too far from the current estimate given both uncertainties (Mahalanobis distance),
+ * or if reaching it from the camera's previous accepted observation would take more than the swerve's top speed,
+ * beyond what the noise of both observations explains.
+ * <p>
+ * A camera whose observations keep failing the Mahalanobis check is trusted over the estimate after a while,
+ * and stays trusted until one of its observations passes the check again, so the estimate is pulled all the way back.
+ * <p>
+ * The amount of rejections per reason is logged under <code>PoseEstimator/VisionRejections/</code>.
+ */
+public class VisionGate {
+    public enum RejectionReason {
+        OUTSIDE_FIELD,
+        IMPOSSIBLE_HEIGHT,
+        IMPOSSIBLE_TILT,
+        MAHALANOBIS_DISTANCE,
+        IMPOSSIBLE_SPEED
+    }
+
+    private static final RejectionReason[] REJECTION_REASONS = RejectionReason.values();
+
+    private final PoseEstimator6328 poseEstimator;
+
+    private final int[] rejectionCounts = new int[REJECTION_REASONS.length];
+    private final String[] rejectionKeys = new String[REJECTION_REASONS.length];
+
+    // The latest accepted observation of each source, as {timestamp, x, y, planar standard deviation}
+    private final double[] lastAcceptedTimestamps, lastAcceptedXs, lastAcceptedYs, lastAcceptedPlanarStdDevs;
+    private final int[] consecutiveMahalanobisRejections;
+    private final boolean[] isOverridingEstimate;
+
+    private final double[] estimateAtTime = new double[3];
+
+    private RejectionReason latestRejectionReason = null;
+
+    /**
+     * @param poseEstimator the estimator the observations are checked against
+     * @param sourceCount   the amount of cameras
+     */
+    public VisionGate(PoseEstimator6328 poseEstimator, int sourceCount) {
+        this.poseEstimator = poseEstimator;
+
+        for (RejectionReason reason : REJECTION_REASONS)
+            rejectionKeys[reason.ordinal()] = "PoseEstimator/VisionRejections/" + reason.name();
+
+        lastAcceptedTimestamps = new double[sourceCount];
+        lastAcceptedXs = new double[sourceCount];
+        lastAcceptedYs = new double[sourceCount];
+        lastAcceptedPlanarStdDevs = new double[sourceCount];
+        consecutiveMahalanobisRejections = new int[sourceCount];
+        isOverridingEstimate = new boolean[sourceCount];
+
+        Arrays.fill(lastAcceptedTimestamps, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * @param source    the index of the camera the observation came from
+     * @param timestamp the timestamp of the observation
+     * @param pose      the robot pose the camera estimated
+     * @return whether the observation should be fused
+     */
+    public boolean accept(int source, double timestamp, Pose3d pose, double xStdDev, double yStdDev, double thetaStdDev) {
+        final RejectionReason reason = findRejectionReason(source, timestamp, pose, xStdDev, yStdDev, thetaStdDev);
+        latestRejectionReason = reason;
+
+        if (reason != null) {
+            rejectionCounts[reason.ordinal()]++;
+            return false;
+        }
+
+        lastAcceptedTimestamps[source] = timestamp;
+        lastAcceptedXs[source] = pose.getX();
+        lastAcceptedYs[source] = pose.getY();
+        lastAcceptedPlanarStdDevs[source] = Math.hypot(xStdDev, yStdDev);
+
+        return true;
+    }
+
+    /**
+     * @return why the latest observation passed to {@link #accept} was rejected, or null if it was accepted
+     */
+    public RejectionReason getLatestRejectionReason() {
+        return latestRejectionReason;
+    }
+
+    /**
+     * Logs the rejection counters. Call once per loop.
+     */
+    public void logRejections() {
+        for (int i = 0; i < rejectionCounts.length; i++)
+            Logger.recordOutput(rejectionKeys[i], rejectionCounts[i]);
+    }
+
+    private RejectionReason findRejectionReason(int source, double timestamp, Pose3d pose, double xStdDev, double yStdDev, double thetaStdDev) {
+        final double x = pose.getX(), y = pose.getY();
+
+        if (x < -VISION_FIELD_MARGIN_METRES || x > FIELD_LENGTH_METRES + VISION_FIELD_MARGIN_METRES
+                || y < -VISION_FIELD_MARGIN_METRES || y > FIELD_WIDTH_METRES + VISION_FIELD_MARGIN_METRES)
+            return RejectionReason.OUTSIDE_FIELD;
+
+        if (Math.abs(pose.getZ()) > MAXIMUM_VISION_HEIGHT_METRES)
+            return RejectionReason.IMPOSSIBLE_HEIGHT;
+
+        if (Math.abs(pose.getRotation().getX()) > MAXIMUM_VISION_TILT_RADIANS
+                || Math.abs(pose.getRotation().getY()) > MAXIMUM_VISION_TILT_RADIANS)
+            return RejectionReason.IMPOSSIBLE_TILT;
+
+        if (isTooFast(source, timestamp, x, y, Math.hypot(xStdDev, yStdDev)))
+            return RejectionReason.IMPOSSIBLE_SPEED;
+
+        if (!isTooFarFromEstimate(timestamp, x, y, pose.getRotation().getZ(), xStdDev, yStdDev, thetaStdDev)) {
+            consecutiveMahalanobisRejections[source] = 0;
+            isOverridingEstimate[source] = false;
+            return null;
+        }
+
+        if (isOverridingEstimate[source]) return null;
+
+        if (++consecutiveMahalanobisRejections[source] <= MAXIMUM_CONSECUTIVE_MAHALANOBIS_REJECTIONS)
+            return RejectionReason.MAHALANOBIS_DISTANCE;
+
+        isOverridingEstimate[source] = true;
+        return null;
+    }
+
+    /**
+     * Whether the jump from the camera's previous accepted observation is faster than the robot can drive.
+     * Frames closer together than {@link PoseEstimatorConstants#MINIMUM_VISION_SPEED_CHECK_WINDOW_SECONDS} aren't compared,
+     * as their noise alone would read as an impossible speed.
+     */
+    private boolean isTooFast(int source, double timestamp, double x, double y, double planarStdDev) {
+        final double timeDifference = timestamp - lastAcceptedTimestamps[source];
+
+        if (timeDifference < MINIMUM_VISION_SPEED_CHECK_WINDOW_SECONDS || timeDifference > VISION_SPEED_CHECK_WINDOW_SECONDS)
+            return false;
+
+        final double distance = Math.hypot(x - lastAcceptedXs[source], y - lastAcceptedYs[source]);
+        final double noiseAllowance = VISION_SPEED_STD_DEV_ALLOWANCE * Math.hypot(planarStdDev, lastAcceptedPlanarStdDevs[source]);
+
+        return (distance - noiseAllowance) / timeDifference > MAX_SPEED_MPS * MAXIMUM_VISION_SPEED_RATIO;
+    }
+
+    /**
+     * Whether the Mahalanobis distance of the observation from the estimate at its timestamp is over the limit.
+     * {@link EstimatorMode#FULL_KALMAN} uses its full covariance at the timestamp.
+     * {@link EstimatorMode#CLOSED_FORM_GAIN} keeps no covariance, so both are taken as diagonal.
+     */
+    private boolean isTooFarFromEstimate(double timestamp, double x, double y, double theta, double xStdDev, double yStdDev, double thetaStdDev) {
+        if (!poseEstimator.sampleEstimatedPose(timestamp, estimateAtTime)) return false;
+
+        final double xError = x - estimateAtTime[0], yError = y - estimateAtTime[1];
+        final double thetaError = MathUtil.angleModulus(theta - estimateAtTime[2]);
+
+        final double squaredDistance = ESTIMATOR_MODE == EstimatorMode.FULL_KALMAN
+                ? poseEstimator.calculateSquaredMahalanobisDistance(timestamp, xError, yError, thetaError, xStdDev, yStdDev, thetaStdDev)
+                : getSquaredNormalizedError(xError, poseEstimator.getEstimateStdDev(0), xStdDev)
+                        + getSquaredNormalizedError(yError, poseEstimator.getEstimateStdDev(1), yStdDev)
+                        + getSquaredNormalizedError(thetaError, poseEstimator.getEstimateStdDev(2), thetaStdDev);
+
+        return squaredDistance > MAXIMUM_VISION_MAHALANOBIS_DISTANCE * MAXIMUM_VISION_MAHALANOBIS_DISTANCE;
+    }
+
+    private static double getSquaredNormalizedError(double error, double estimateStdDev, double observationStdDev) {
+        final double variance = estimateStdDev * estimateStdDev + observationStdDev * observationStdDev;
+
+        return variance == 0 ? 0 : error * error / variance;
+    }
+}
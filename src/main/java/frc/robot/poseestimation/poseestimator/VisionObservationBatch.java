@@ -0,0 +1,78 @@
+package frc.robot.poseestimation.poseestimator;
+
+/**
+ * The vision observations of every camera from a single loop, stored as a struct of arrays.
+ * <p>
+ * The arrays are preallocated and reused every loop - only the first {@link #size} elements are valid.
+ */
+public class VisionObservationBatch {
+    public final double[] timestamps;
+    public final double[] x, y, theta;
+    public final double[] xStdDevs, yStdDevs, thetaStdDevs;
+
+    /** The amount of valid observations in the arrays */
+    public int size = 0;
+
+    public VisionObservationBatch(int capacity) {
+        timestamps = new double[capacity];
+
+        x = new double[capacity];
+        y = new double[capacity];
+        theta = new double[capacity];
+
+        xStdDevs = new double[capacity];
+        yStdDevs = new double[capacity];
+        thetaStdDevs = new double[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Adds a field-relative robot pose measurement.
+     *
+     * @return false if the batch is full, and the observation was dropped
+     */
+    public boolean add(double timestamp, double x, double y, double theta, double xStdDev, double yStdDev, double thetaStdDev) {
+        if (size == timestamps.length) return false;
+
+        set(size, timestamp, x, y, theta, xStdDev, yStdDev, thetaStdDev);
+        size++;
+
+        return true;
+    }
+
+    /**
+     * Sorts the observations from oldest to newest, in place.
+     * Insertion sort, as there are only a handful of observations per loop and they mostly arrive in order.
+     */
+    public void sortByTimestamp() {
+        for (int i = 1; i < size; i++) {
+            final double timestamp = timestamps[i];
+            final double currentX = x[i], currentY = y[i], currentTheta = theta[i];
+            final double currentXStdDev = xStdDevs[i], currentYStdDev = yStdDevs[i], currentThetaStdDev = thetaStdDevs[i];
+
+            int j = i - 1;
+
+            while (j >= 0 && timestamps[j] > timestamp) {
+                set(j + 1, timestamps[j], x[j], y[j], theta[j], xStdDevs[j], yStdDevs[j], thetaStdDevs[j]);
+                j--;
+            }
+
+            set(j + 1, timestamp, currentX, currentY, currentTheta, currentXStdDev, currentYStdDev, currentThetaStdDev);
+        }
+    }
+
+    private void set(int index, double timestamp, double x, double y, double theta, double xStdDev, double yStdDev, double thetaStdDev) {
+        timestamps[index] = timestamp;
+
+        this.x[index] = x;
+        this.y[index] = y;
+        this.theta[index] = theta;
+
+        xStdDevs[index] = xStdDev;
+        yStdDevs[index] = yStdDev;
+        thetaStdDevs[index] = thetaStdDev;
+    }
+}
@@ -0,0 +1,230 @@
+package frc.robot.poseestimation.poseestimator;
+
+import edu.wpi.first.util.datalog.DataLogReader;
+import edu.wpi.first.util.datalog.DataLogRecord;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static frc.robot.poseestimation.poseestimator.PoseEstimatorConstants.ACCEPTED_VISION_RESIDUAL;
+import static frc.robot.poseestimation.poseestimator.PoseEstimatorConstants.VISION_RESIDUALS_LOG_KEY;
+import static frc.robot.poseestimation.poseestimator.PoseEstimatorConstants.VISION_RESIDUALS_ROW_LENGTH;
+
+/**
+ * Fits the coefficients of the {@link TagAwareStdDevModel} from a WPILOG recorded on the robot.
+ * <p>
+ * Every loop, the {@link PoseEstimator} logs each vision observation's {@link VisionFeatures}, why the {@link VisionGate} rejected it,
+ * and its residual from the estimate at its timestamp (propagated by odometry alone since the previous fused observation),
+ * under {@link PoseEstimatorConstants#VISION_RESIDUALS_LOG_KEY}. For a zero-mean normal residual, E|r| = std * sqrt(2 / pi),
+ * so the coefficients are fitted with least squares to |r| * sqrt(pi / 2), per camera.
+ * <p>
+ * Observations the gate rejected by their Mahalanobis distance are fitted as well. That threshold comes from the current model,
+ * so fitting only the accepted observations would drop the large residuals and fit a model that trusts the cameras more every time.
+ * Observations rejected for an impossible pose or speed are left out - they're misdetections, not noise,
+ * and a few of them would outweigh everything else in an unweighted least squares fit.
+ * <p>
+ * This runs on a computer, not on the robot: <code>./gradlew calibrateVisionStdDevs -Plog=path/to/log.wpilog</code>.
+ * Paste the printed coefficients into {@link PoseEstimatorConstants}.
+ */
+public class VisionStdDevCalibration {
+    private static final int N = TagAwareStdDevModel.COEFFICIENT_COUNT;
+    private static final double ABSOLUTE_RESIDUAL_TO_STD_DEV = Math.sqrt(Math.PI / 2);
+
+    private final VisionFeatures features = new VisionFeatures();
+    private final double[] terms = new double[N];
+
+    // Normal equations (A^T A, A^T b), per camera
+    private double[][] translationNormalMatrices = new double[0][], translationNormalVectors = new double[0][];
+    private double[][] rotationNormalMatrices = new double[0][], rotationNormalVectors = new double[0][];
+    private int[] observationCounts = new int[0], acceptedCounts = new int[0], excludedCounts = new int[0];
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: VisionStdDevCalibration <path to .wpilog>");
+            return;
+        }
+
+        final DataLogReader reader = new DataLogReader(args[0]);
+
+        if (!reader.isValid()) {
+            System.out.println("Not a valid WPILOG: " + args[0]);
+            return;
+        }
+
+        final VisionStdDevCalibration calibration = new VisionStdDevCalibration();
+        int residualsEntry = -1;
+
+        for (DataLogRecord record : reader) {
+            if (record.isStart()) {
+                final DataLogRecord.StartRecordData startData = record.getStartData();
+
+                if (startData.name.endsWith(VISION_RESIDUALS_LOG_KEY) && startData.type.equals("double[]"))
+                    residualsEntry = startData.entry;
+
+                continue;
+            }
+
+            if (record.isControl() || record.getEntry() != residualsEntry) continue;
+
+            calibration.addRows(record.getDoubleArray());
+        }
+
+        calibration.printCoefficients();
+    }
+
+    private void addRows(double[] rows) {
+        for (int offset = 0; offset + VISION_RESIDUALS_ROW_LENGTH <= rows.length; offset += VISION_RESIDUALS_ROW_LENGTH) {
+            features.readFrom(rows, offset);
+
+            if (features.tagCount == 0) continue;
+
+            ensureCamera(features.camera);
+            observationCounts[features.camera]++;
+
+            if (!isFitted(rows[offset + VisionFeatures.LENGTH])) {
+                excludedCounts[features.camera]++;
+                continue;
+            }
+
+            if (rows[offset + VisionFeatures.LENGTH] == ACCEPTED_VISION_RESIDUAL) acceptedCounts[features.camera]++;
+
+            final double xResidual = rows[offset + VisionFeatures.LENGTH + 1];
+            final double yResidual = rows[offset + VisionFeatures.LENGTH + 2];
+            final double thetaResidual = rows[offset + VisionFeatures.LENGTH + 3];
+
+            TagAwareStdDevModel.calculateTerms(features, false, terms);
+            accumulate(translationNormalMatrices[features.camera], translationNormalVectors[features.camera], Math.abs(xResidual));
+            accumulate(translationNormalMatrices[features.camera], translationNormalVectors[features.camera], Math.abs(yResidual));
+
+            TagAwareStdDevModel.calculateTerms(features, true, terms);
+            accumulate(rotationNormalMatrices[features.camera], rotationNormalVectors[features.camera], Math.abs(thetaResidual));
+        }
+    }
+
+    /**
+     * @param rejection the ordinal of the reason the observation was rejected for, or {@link PoseEstimatorConstants#ACCEPTED_VISION_RESIDUAL}
+     */
+    private static boolean isFitted(double rejection) {
+        return rejection == ACCEPTED_VISION_RESIDUAL || rejection == VisionGate.RejectionReason.MAHALANOBIS_DISTANCE.ordinal();
+    }
+
+    private void accumulate(double[] normalMatrix, double[] normalVector, double absoluteResidual) {
+        final double target = absoluteResidual * ABSOLUTE_RESIDUAL_TO_STD_DEV;
+
+        for (int row = 0; row < N; row++) {
+            normalVector[row] += terms[row] * target;
+
+            for (int column = 0; column < N; column++)
+                normalMatrix[row * N + column] += terms[row] * terms[column];
+        }
+    }
+
+    private void printCoefficients() {
+        final StringBuilder translation = new StringBuilder(), rotation = new StringBuilder();
+
+        for (int camera = 0; camera < observationCounts.length; camera++) {
+            System.out.println("Camera " + camera + ": " + observationCounts[camera] + " observations, " + acceptedCounts[camera] + " accepted by the gate, "
+                    + excludedCounts[camera] + " left out as impossible");
+
+            translation.append("            ").append(formatCoefficients(solve(translationNormalMatrices[camera], translationNormalVectors[camera]))).append(",\n");
+            rotation.append("            ").append(formatCoefficients(solve(rotationNormalMatrices[camera], rotationNormalVectors[camera]))).append(",\n");
+        }
+
+        System.out.println("VISION_TRANSLATION_STD_DEV_COEFFICIENTS = {\n" + translation + "}");
+        System.out.println("VISION_ROTATION_STD_DEV_COEFFICIENTS = {\n" + rotation + "}");
+    }
+
+    private void ensureCamera(int camera) {
+        if (camera < observationCounts.length) return;
+
+        final int previousLength = observationCounts.length;
+        final int newLength = camera + 1;
+
+        translationNormalMatrices = Arrays.copyOf(translationNormalMatrices, newLength);
+        translationNormalVectors = Arrays.copyOf(translationNormalVectors, newLength);
+        rotationNormalMatrices = Arrays.copyOf(rotationNormalMatrices, newLength);
+        rotationNormalVectors = Arrays.copyOf(rotationNormalVectors, newLength);
+        observationCounts = Arrays.copyOf(observationCounts, newLength);
+        acceptedCounts = Arrays.copyOf(acceptedCounts, newLength);
+        excludedCounts = Arrays.copyOf(excludedCounts, newLength);
+
+        for (int i = previousLength; i < newLength; i++) {
+            translationNormalMatrices[i] = new double[N * N];
+            translationNormalVectors[i] = new double[N];
+            rotationNormalMatrices[i] = new double[N * N];
+            rotationNormalVectors[i] = new double[N];
+        }
+    }
+
+    /**
+     * Solves the normal equations with Gaussian elimination and partial pivoting.
+     * Terms that never varied in the log (a singular column) are left at 0.
+     */
+    private static double[] solve(double[] normalMatrix, double[] normalVector) {
+        final double[] matrix = normalMatrix.clone(), vector = normalVector.clone();
+        final double[] solution = new double[N];
+        final boolean[] isSingular = new boolean[N];
+
+        for (int pivot = 0; pivot < N; pivot++) {
+            int bestRow = pivot;
+
+            for (int row = pivot + 1; row < N; row++) {
+                if (Math.abs(matrix[row * N + pivot]) > Math.abs(matrix[bestRow * N + pivot])) bestRow = row;
+            }
+
+            if (Math.abs(matrix[bestRow * N + pivot]) < 1e-12) {
+                isSingular[pivot] = true;
+                continue;
+            }
+
+            swapRows(matrix, vector, pivot, bestRow);
+
+            for (int row = pivot + 1; row < N; row++) {
+                final double factor = matrix[row * N + pivot] / matrix[pivot * N + pivot];
+
+                for (int column = pivot; column < N; column++)
+                    matrix[row * N + column] -= factor * matrix[pivot * N + column];
+
+                vector[row] -= factor * vector[pivot];
+            }
+        }
+
+        for (int row = N - 1; row >= 0; row--) {
+            if (isSingular[row]) continue;
+
+            double sum = vector[row];
+
+            for (int column = row + 1; column < N; column++)
+                sum -= matrix[row * N + column] * solution[column];
+
+            solution[row] = sum / matrix[row * N + row];
+        }
+
+        return solution;
+    }
+
+    private static void swapRows(double[] matrix, double[] vector, int first, int second) {
+        if (first == second) return;
+
+        for (int column = 0; column < N; column++) {
+            final double temporary = matrix[first * N + column];
+            matrix[first * N + column] = matrix[second * N + column];
+            matrix[second * N + column] = temporary;
+        }
+
+        final double temporary = vector[first];
+        vector[first] = vector[second];
+        vector[second] = temporary;
+    }
+
+    private static String formatCoefficients(double[] coefficients) {
+        final StringBuilder builder = new StringBuilder("{");
+
+        for (int i = 0; i < coefficients.length; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(coefficients[i]);
+        }
+
+        return builder.append("}").toString();
+    }
+}
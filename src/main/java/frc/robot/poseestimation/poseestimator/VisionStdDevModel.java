@@ -0,0 +1,12 @@
+package frc.robot.poseestimation.poseestimator;
+
+/**
+ * Decides how much a vision observation is trusted, as standard deviations of the measured {x, y, theta}.
+ */
+public interface VisionStdDevModel {
+    /**
+     * @param features what is known about the observation
+     * @param result   an array of at least 3 elements to write the {x, y, theta} standard deviations into
+     */
+    void calculateStdDevs(VisionFeatures features, double[] result);
+}
@@ -14,6 +14,7 @@ import frc.lib.generic.PID;
 import frc.lib.math.Optimizations;
 import frc.lib.util.mirrorable.Mirrorable;
 import frc.robot.RobotContainer;
+import frc.robot.poseestimation.poseestimator.SwerveOdometryFrame;
 import org.littletonrobotics.junction.AutoLogOutput;
 
 import static frc.lib.math.Conversions.proportionalPowerToMps;
@@ -26,10 +27,17 @@ public class Swerve extends GenericSubsystem {
     private static final PID translationController = new PID(HOLONOMIC_PATH_FOLLOWER_CONFIG.translationConstants);
     private static final PID rotationController = new PID(HOLONOMIC_PATH_FOLLOWER_CONFIG.rotationConstants);
 
+    private final SwerveOdometryFrame odometryFrame = new SwerveOdometryFrame(MODULES.length, OdometryThread.QUEUE_CAPACITY);
+
     private double lastTimestamp = Timer.getFPGATimestamp();
 
     public Swerve() {
         configurePathPlanner();
+
+        OdometryThread.getInstance().setSpeedRatioSupplier(() -> {
+            final ChassisSpeeds velocity = getSelfRelativeVelocity();
+            return Math.hypot(velocity.vxMetersPerSecond, velocity.vyMetersPerSecond) / MAX_SPEED_MPS;
+        });
     }
 
     public void stop() {
@@ -50,18 +58,30 @@ public class Swerve extends GenericSubsystem {
         return SWERVE_KINEMATICS.toChassisSpeeds(getModuleStates());
     }
 
+    /**
+     * Gathers the odometry samples of the last loop into a single time-aligned frame, and passes it to the pose estimator.
+     * Should every signal not have a sample for every timestamp, only the latest samples that all signals share are used.
+     */
     public void periodicallyUpdateFromOdometry() {
-        final int odometryUpdates = GYRO.getInputs().threadGyroYawDegrees.length;
+        final double[] timestamps = OdometryThread.getInstance().getLatestTimestamps();
+        final double[] gyroYaws = GYRO.getInputs().threadGyroYawDegrees;
 
-        final SwerveDriveWheelPositions[] swerveWheelPositions = new SwerveDriveWheelPositions[odometryUpdates];
-        final Rotation2d[] gyroRotations = new Rotation2d[odometryUpdates];
+        int alignedSamples = Math.min(Math.min(timestamps.length, gyroYaws.length), odometryFrame.getCapacity());
 
-        for (int i = 0; i < odometryUpdates; i++) {
-            swerveWheelPositions[i] = getSwerveWheelPositions(i);
-            gyroRotations[i] = Rotation2d.fromDegrees(GYRO.getInputs().threadGyroYawDegrees[i]);
-        }
+        for (SwerveModule module : MODULES)
+            alignedSamples = Math.min(alignedSamples, module.getOdometrySampleCount());
+
+        System.arraycopy(timestamps, timestamps.length - alignedSamples, odometryFrame.timestamps, 0, alignedSamples);
+        System.arraycopy(gyroYaws, gyroYaws.length - alignedSamples, odometryFrame.gyroYawDegrees, 0, alignedSamples);
+
+        for (int i = 0; i < MODULES.length; i++)
+            MODULES[i].getOdometrySamples(alignedSamples, odometryFrame.moduleDistancesMetres[i], odometryFrame.moduleAnglesRotations[i]);
 
-        POSE_ESTIMATOR.addOdometryObservations(swerveWheelPositions, gyroRotations, OdometryThread.getInstance().getLatestTimestamps());
+        odometryFrame.size = alignedSamples;
+        odometryFrame.misalignedSamples = timestamps.length - alignedSamples;
+        odometryFrame.droppedSamples = OdometryThread.getInstance().getDroppedFramesSinceLastLoop();
+
+        POSE_ESTIMATOR.addOdometryObservations(odometryFrame);
     }
 
     protected void driveOrientationBased(double xPower, double yPower, double thetaPower, boolean robotCentric) {
@@ -73,7 +93,7 @@ public class Swerve extends GenericSubsystem {
 
     protected void driveWithTarget(double xPower, double yPower, Pose2d target, boolean robotCentric) {
         final Rotation2d currentAngle = RobotContainer.POSE_ESTIMATOR.getCurrentPose().getRotation();
-        final Rotation2d targetAngle = getAngleFromPoseToPose(RobotContainer.POSE_ESTIMATOR.getCurrentPose(), target);
+        final Rotation2d targetAngle = getAngleFromPoseToPose(RobotContainer.POSE_ESTIMATOR.getPredictedPose(AIM_LOOKAHEAD_SECONDS), target);
 
         final double controllerOutput = Units.degreesToRadians(
                 ROTATION_CONTROLLER.calculate(
@@ -141,15 +161,6 @@ public class Swerve extends GenericSubsystem {
         ROTATION_CONTROLLER.reset(POSE_ESTIMATOR.getCurrentPose().getRotation().getDegrees());
     }
 
-    protected SwerveDriveWheelPositions getSwerveWheelPositions(int odometryUpdateIndex) {
-        final SwerveModulePosition[] swerveModulePositions = new SwerveModulePosition[MODULES.length];
-
-        for (int i = 0; i < MODULES.length; i++)
-            swerveModulePositions[i] = MODULES[i].getOdometryPosition(odometryUpdateIndex);
-
-        return new SwerveDriveWheelPositions(swerveModulePositions);
-    }
-
     protected void configurePathPlanner() {
         AutoBuilder.configureHolonomic(
                 POSE_ESTIMATOR::getCurrentPose,
@@ -26,16 +26,19 @@ public class SwerveConstants {
     public static final double MAX_SPEED_MPS = 5.1;
     public static final double MAX_ROTATION_RAD_PER_S = 3 * Math.PI;
 
+    /** How far ahead the robot's pose is predicted when aiming at a target, to make up for the rotation's response time */
+    static final double AIM_LOOKAHEAD_SECONDS = 0.06;
+
     public static final double DRIVE_BASE_RADIUS = new Translation2d(TRACK_WIDTH / 2, WHEEL_BASE / 2).getNorm();
     
-    private static final Translation2d[] moduleLocations = {
+    public static final Translation2d[] MODULE_LOCATIONS = {
             new Translation2d(WHEEL_BASE / 2.0, TRACK_WIDTH / 2.0),
             new Translation2d(WHEEL_BASE / 2.0, -TRACK_WIDTH / 2.0),
             new Translation2d(-WHEEL_BASE / 2.0, TRACK_WIDTH / 2.0),
             new Translation2d(-WHEEL_BASE / 2.0, -TRACK_WIDTH / 2.0)
     };
 
-    public static final SwerveDriveKinematics SWERVE_KINEMATICS = new SwerveDriveKinematics(moduleLocations);
+    public static final SwerveDriveKinematics SWERVE_KINEMATICS = new SwerveDriveKinematics(MODULE_LOCATIONS);
 
     public static final double
             DRIVE_NEUTRAL_DEADBAND = 0.15,
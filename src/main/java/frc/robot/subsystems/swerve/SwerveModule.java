@@ -1,8 +1,8 @@
 package frc.robot.subsystems.swerve;
 
 import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
+import frc.lib.generic.advantagekit.SampleBuffer;
 import frc.lib.generic.hardware.encoder.Encoder;
 import frc.lib.generic.hardware.encoder.EncoderInputs;
 import frc.lib.generic.hardware.motor.Motor;
@@ -11,8 +11,6 @@ import frc.lib.generic.hardware.motor.MotorProperties;
 import frc.lib.math.Conversions;
 import frc.lib.math.Optimizations;
 
-import java.util.Arrays;
-
 import static frc.lib.math.Conversions.rotationsToMetres;
 import static frc.robot.GlobalConstants.VOLTAGE_COMPENSATION_SATURATION;
 import static frc.robot.subsystems.swerve.SwerveConstants.*;
@@ -39,18 +37,32 @@ public class SwerveModule {
         setTargetVelocity(optimizedVelocity, openLoop);
     }
 
+    /**
+     * @return the amount of odometry samples both the drive motor and the steer encoder have from the last loop
+     */
+    protected int getOdometrySampleCount() {
+        return Math.min(getDriveMotorInputs().threadSystemPosition.size(), getSteerEncoderInputs().threadPosition.size());
+    }
+
     /**
      * The odometry thread can update itself faster than the main code loop (which is 50 hertz).
      * Instead of using the latest odometry update, the accumulated odometry positions since the last loop to get a more accurate position.
+     * This writes the latest {@code sampleCount} samples into the given arrays, starting at index 0.
      *
-     * @param odometryUpdateIndex the index of the odometry update
-     * @return the position of the module at the given odometry update index
+     * @param sampleCount      the amount of samples to write, at most {@link #getOdometrySampleCount()}
+     * @param distancesMetres  the array to write the drive distances into
+     * @param anglesRotations  the array to write the module angles into
      */
-    protected SwerveModulePosition getOdometryPosition(int odometryUpdateIndex) {
-        return new SwerveModulePosition(
-                getDriveMetersTraveled(getDriveMotorInputs().threadSystemPosition)[odometryUpdateIndex],
-                Rotation2d.fromRotations(getSteerEncoderInputs().threadPosition[odometryUpdateIndex])
-        );
+    protected void getOdometrySamples(int sampleCount, double[] distancesMetres, double[] anglesRotations) {
+        final SampleBuffer drivePositions = getDriveMotorInputs().threadSystemPosition;
+        final SampleBuffer steerPositions = getSteerEncoderInputs().threadPosition;
+
+        final int driveOffset = drivePositions.size() - sampleCount, steerOffset = steerPositions.size() - sampleCount;
+
+        for (int i = 0; i < sampleCount; i++) {
+            distancesMetres[i] = rotationsToMetres(drivePositions.values[driveOffset + i], WHEEL_DIAMETER);
+            anglesRotations[i] = steerPositions.values[steerOffset + i];
+        }
     }
 
     protected void setOpenLoop(boolean openLoop) {
@@ -98,10 +110,6 @@ public class SwerveModule {
         return driveMotor.getInputs();
     }
 
-    private double[] getDriveMetersTraveled(double[] rotationsPositions) {
-        return Arrays.stream(rotationsPositions).map(position -> rotationsToMetres(position, WHEEL_DIAMETER)).toArray();
-    }
-
     private boolean isTemperatureOkay() {
         return driveMotor.getTemperature() < 80;
     }
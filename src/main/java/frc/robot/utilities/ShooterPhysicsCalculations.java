@@ -12,6 +12,8 @@ public class ShooterPhysicsCalculations {
     private static final double PIVOT_POINT_Z_OFFSET_METRES = 0.2;
     private static final double PIVOT_POINT_X_OFFSET_METRES = -0.31;
     private static final double SHOOTER_LENGTH_METRES = 0.415;
+    /** Roughly the time from commanding a shot until the note leaves the shooter */
+    private static final double NOTE_EXIT_LOOKAHEAD_SECONDS = 0.08;
 
     /**
      * @return the target angle of the robot to shoot at the provided target
@@ -63,6 +65,7 @@ public class ShooterPhysicsCalculations {
      * Calculates the note's exit pose relative to the field
      * The note exit pose is the furthest point of the shooter from the pivot point,
      * and where the note leaves the shooter.
+     * The robot's pose is predicted to when the note leaves, so shooting on the move doesn't lag behind the robot.
      *
      * @return the shooter's note exit pose on the field
      */
@@ -76,8 +79,8 @@ public class ShooterPhysicsCalculations {
         Logger.recordOutput("ShootingCalculations/NoteExitPoint", noteExitPoseSelfRelative);
         //todo: calibrate maybe
         final Transform3d robotToNoteExitPose = noteExitPoseSelfRelative.minus(new Pose3d());
-        final Pose3d currentPose = new Pose3d(POSE_ESTIMATOR.getCurrentPose());
+        final Pose3d predictedPose = new Pose3d(POSE_ESTIMATOR.getPredictedPose(NOTE_EXIT_LOOKAHEAD_SECONDS));
 
-        return currentPose.transformBy(robotToNoteExitPose);
+        return predictedPose.transformBy(robotToNoteExitPose);
     }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package frc.lib.generic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class SignalQueueTest {
+    @Test
+    void roundsCapacityUpToPowerOfTwo() {
+        Assertions.assertEquals(8, new SignalQueue(5).remainingCapacity());
+        Assertions.assertEquals(8, new SignalQueue(8).remainingCapacity());
+        Assertions.assertEquals(4, new SignalQueue(3).remainingCapacity());
+    }
+
+    @Test
+    void drainsInOfferOrderAcrossWraparound() {
+        final SignalQueue queue = new SignalQueue(4);
+
+        for (int round = 0; round < 10; round++) {
+            Assertions.assertTrue(queue.offer(round * 3));
+            Assertions.assertTrue(queue.offer(round * 3 + 1));
+            Assertions.assertTrue(queue.offer(round * 3 + 2));
+
+            Assertions.assertArrayEquals(new double[]{round * 3, round * 3 + 1, round * 3 + 2}, queue.drain());
+            Assertions.assertEquals(0, queue.size());
+        }
+    }
+
+    @Test
+    void dropsSamplesWhenFull() {
+        final SignalQueue queue = new SignalQueue(4);
+
+        for (int i = 0; i < 4; i++)
+            Assertions.assertTrue(queue.offer(i));
+
+        Assertions.assertFalse(queue.offer(4));
+        Assertions.assertEquals(0, queue.remainingCapacity());
+        Assertions.assertArrayEquals(new double[]{0, 1, 2, 3}, queue.drain());
+
+        Assertions.assertTrue(queue.offer(5));
+        Assertions.assertArrayEquals(new double[]{5}, queue.drain());
+    }
+
+    @Test
+    void limitsOnlyTheNextDrain() {
+        final SignalQueue queue = new SignalQueue(8);
+
+        for (int i = 0; i < 5; i++)
+            queue.offer(i);
+
+        queue.limitNextDrain(2);
+        Assertions.assertArrayEquals(new double[]{0, 1}, queue.drain());
+
+        Assertions.assertArrayEquals(new double[]{2, 3, 4}, queue.drain());
+    }
+
+    @Test
+    void drainToStopsAtDestinationLength() {
+        final SignalQueue queue = new SignalQueue(8);
+        final double[] destination = new double[2];
+
+        for (int i = 0; i < 3; i++)
+            queue.offer(i);
+
+        Assertions.assertEquals(2, queue.drainTo(destination));
+        Assertions.assertArrayEquals(new double[]{0, 1}, destination);
+        Assertions.assertEquals(1, queue.size());
+    }
+
+    @Test
+    void drainReturnsNewArrays() {
+        final SignalQueue queue = new SignalQueue(4);
+
+        queue.offer(1);
+        final double[] first = queue.drain();
+        queue.offer(2);
+        final double[] second = queue.drain();
+
+        Assertions.assertNotSame(first, second);
+        Assertions.assertArrayEquals(new double[]{1}, first);
+        Assertions.assertArrayEquals(new double[]{2}, second);
+    }
+
+    @Test
+    void handsEverySampleFromProducerToConsumerInOrder() throws InterruptedException {
+        final int sampleCount = 100_000;
+        final SignalQueue queue = new SignalQueue(16);
+
+        final Thread producer = new Thread(() -> {
+            for (int i = 0; i < sampleCount; i++) {
+                while (!queue.offer(i)) Thread.yield();
+            }
+        });
+
+        producer.start();
+
+        final double[] destination = new double[16];
+        int received = 0;
+
+        while (received < sampleCount) {
+            final int drained = queue.drainTo(destination);
+
+            if (drained == 0) Thread.yield();
+
+            for (int i = 0; i < drained; i++)
+                Assertions.assertEquals(received + i, destination[i]);
+
+            received += drained;
+        }
+
+        producer.join();
+
+        Assertions.assertEquals(0, queue.size());
+    }
+}
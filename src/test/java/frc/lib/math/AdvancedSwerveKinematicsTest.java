@@ -0,0 +1,43 @@
+package frc.lib.math;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class AdvancedSwerveKinematicsTest {
+    private static final double EPSILON = 1e-9;
+
+    private static final double[][] TWISTS = {
+            {0, 0, 0},
+            {1, 0, 0},
+            {0, -0.5, 0},
+            {0.3, 0.2, 1e-10},
+            {0.3, 0.2, 1e-5},
+            {0.02, -0.01, 0.035},
+            {1.5, 0.7, -1.2},
+            {-0.4, 2, 3}
+    };
+
+    @Test
+    void logInvertsExp() {
+        final double[] pose = new double[3];
+        final double[] twist = new double[3];
+
+        for (double[] expectedTwist : TWISTS) {
+            pose[0] = pose[1] = pose[2] = 0;
+
+            AdvancedSwerveKinematics.exp(expectedTwist[0], expectedTwist[1], expectedTwist[2], pose);
+            AdvancedSwerveKinematics.log(pose[0], pose[1], pose[2], twist);
+
+            Assertions.assertArrayEquals(expectedTwist, twist, EPSILON);
+        }
+    }
+
+    @Test
+    void expMovesRelativeToTheHeading() {
+        final double[] pose = {1, 2, Math.PI / 2};
+
+        AdvancedSwerveKinematics.exp(1, 0, 0, pose);
+
+        Assertions.assertArrayEquals(new double[]{1, 3, Math.PI / 2}, pose, EPSILON);
+    }
+}
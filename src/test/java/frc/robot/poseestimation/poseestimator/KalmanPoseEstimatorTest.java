@@ -0,0 +1,146 @@
+package frc.robot.poseestimation.poseestimator;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class KalmanPoseEstimatorTest {
+    private static final double EPSILON = 1e-9;
+    private static final double ODOMETRY_PERIOD_SECONDS = 0.02;
+    private static final int ODOMETRY_SAMPLES = 50;
+
+    private static final double[][] OBSERVATIONS = {
+            // timestamp, x, y, theta, x std dev, y std dev, theta std dev
+            {0.205, 0.9, 0.15, 0.3, 0.2, 0.3, 0.1},
+            {0.205, 1.1, 0.05, 0.2, 0.4, 0.2, 0.2},
+            {0.51, 2.6, 0.9, 0.8, 0.3, 0.3, 0.15},
+            {0.83, 3.9, 2.1, 1.4, 0.25, 0.35, 0.1}
+    };
+
+    @Test
+    void batchFusionMatchesSequentialFusion() {
+        final KalmanPoseEstimator batchEstimator = createDrivenEstimator();
+        final KalmanPoseEstimator sequentialEstimator = createDrivenEstimator();
+
+        final VisionObservationBatch batch = new VisionObservationBatch(OBSERVATIONS.length);
+
+        for (double[] observation : OBSERVATIONS)
+            addObservation(batch, observation);
+
+        Assertions.assertEquals(OBSERVATIONS.length, batchEstimator.addVisionObservations(batch));
+
+        for (double[] observation : OBSERVATIONS) {
+            batch.clear();
+            addObservation(batch, observation);
+
+            Assertions.assertEquals(1, sequentialEstimator.addVisionObservations(batch));
+        }
+
+        assertSameEstimate(sequentialEstimator, batchEstimator);
+    }
+
+    @Test
+    void lateFusionMatchesFusionOnTime() {
+        final KalmanPoseEstimator lateEstimator = createDrivenEstimator();
+        final KalmanPoseEstimator onTimeEstimator = createEstimator();
+
+        final double[] observation = OBSERVATIONS[2];
+        final VisionObservationBatch batch = new VisionObservationBatch(1);
+        addObservation(batch, observation);
+
+        lateEstimator.addVisionObservations(batch);
+
+        for (int i = 0; i <= ODOMETRY_SAMPLES; i++) {
+            final double timestamp = i * ODOMETRY_PERIOD_SECONDS;
+
+            if (timestamp > observation[0] && batch.size > 0) {
+                onTimeEstimator.addVisionObservations(batch);
+                batch.clear();
+            }
+
+            addTwist(onTimeEstimator, i);
+        }
+
+        assertSameEstimate(onTimeEstimator, lateEstimator);
+    }
+
+    @Test
+    void ignoresObservationsOlderThanTheHistory() {
+        final KalmanPoseEstimator estimator = createDrivenEstimator();
+        final double[] poseBefore = new double[3];
+        final double[] poseAfter = new double[3];
+
+        estimator.getEstimatedPose(poseBefore);
+
+        final VisionObservationBatch batch = new VisionObservationBatch(1);
+        batch.add(-1, 5, 5, 1, 0.1, 0.1, 0.1);
+
+        Assertions.assertEquals(0, estimator.addVisionObservations(batch));
+
+        estimator.getEstimatedPose(poseAfter);
+        Assertions.assertArrayEquals(poseBefore, poseAfter, EPSILON);
+    }
+
+    @Test
+    void mergesRepeatedTimestampsIntoTheLatestSample() {
+        final KalmanPoseEstimator mergedEstimator = createEstimator();
+        final KalmanPoseEstimator singleEstimator = createEstimator();
+
+        mergedEstimator.addOdometryTwist(0, 0, 0, 0, 1);
+        mergedEstimator.addOdometryTwist(0.02, 0.1, 0, 0, 1);
+        mergedEstimator.addOdometryTwist(0.02, 0.05, 0, 0, 3);
+        mergedEstimator.addOdometryTwist(0.01, 0.05, 0, 0, 1);
+
+        singleEstimator.addOdometryTwist(0, 0, 0, 0, 1);
+        singleEstimator.addOdometryTwist(0.02, 0.2, 0, 0, 3);
+
+        final double[] pose = new double[3];
+        mergedEstimator.getEstimatedPose(pose);
+        Assertions.assertArrayEquals(new double[]{0.2, 0, 0}, pose, EPSILON);
+
+        // Replaying the history after a measurement at the first sample re-applies the merged motion as a single twist
+        final VisionObservationBatch batch = new VisionObservationBatch(1);
+        batch.add(0, 0.05, 0.05, 0.05, 0.1, 0.1, 0.1);
+
+        mergedEstimator.addVisionObservations(batch);
+        singleEstimator.addVisionObservations(batch);
+
+        assertSameEstimate(singleEstimator, mergedEstimator);
+    }
+
+    private static KalmanPoseEstimator createEstimator() {
+        return new KalmanPoseEstimator(2, 256, new double[]{0.05, 0.05, 0.02}, new double[]{0.5, 0.5, 0.2});
+    }
+
+    /**
+     * @return an estimator that has driven an arc, one odometry sample every {@link #ODOMETRY_PERIOD_SECONDS}
+     */
+    private static KalmanPoseEstimator createDrivenEstimator() {
+        final KalmanPoseEstimator estimator = createEstimator();
+
+        for (int i = 0; i <= ODOMETRY_SAMPLES; i++)
+            addTwist(estimator, i);
+
+        return estimator;
+    }
+
+    private static void addTwist(KalmanPoseEstimator estimator, int sample) {
+        estimator.addOdometryTwist(sample * ODOMETRY_PERIOD_SECONDS, 0.1, 0.01 * Math.sin(sample), 0.035, 1);
+    }
+
+    private static void addObservation(VisionObservationBatch batch, double[] observation) {
+        batch.add(observation[0], observation[1], observation[2], observation[3], observation[4], observation[5], observation[6]);
+    }
+
+    private static void assertSameEstimate(KalmanPoseEstimator expected, KalmanPoseEstimator actual) {
+        final double[] expectedPose = new double[3];
+        final double[] actualPose = new double[3];
+
+        expected.getEstimatedPose(expectedPose);
+        actual.getEstimatedPose(actualPose);
+
+        Assertions.assertArrayEquals(expectedPose, actualPose, EPSILON);
+
+        for (int axis = 0; axis < 3; axis++)
+            Assertions.assertEquals(expected.getStdDev(axis), actual.getStdDev(axis), EPSILON);
+    }
+}
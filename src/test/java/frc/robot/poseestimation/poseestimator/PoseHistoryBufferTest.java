@@ -0,0 +1,84 @@
+package frc.robot.poseestimation.poseestimator;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class PoseHistoryBufferTest {
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    void interpolatesAcrossWraparound() {
+        final PoseHistoryBuffer buffer = new PoseHistoryBuffer(10, 4);
+        final double[] result = new double[3];
+
+        for (int i = 0; i <= 6; i++)
+            buffer.addSample(i, i, 2 * i, 0.1 * i);
+
+        Assertions.assertEquals(3, buffer.getOldestTimestamp());
+        Assertions.assertEquals(6, buffer.getLatestTimestamp());
+
+        for (double timestamp = 3; timestamp <= 6; timestamp += 0.25) {
+            Assertions.assertTrue(buffer.sample(timestamp, result));
+            Assertions.assertArrayEquals(new double[]{timestamp, 2 * timestamp, 0.1 * timestamp}, result, EPSILON);
+        }
+    }
+
+    @Test
+    void interpolatesTheShortestRotation() {
+        final PoseHistoryBuffer buffer = new PoseHistoryBuffer(10, 4);
+        final double[] result = new double[3];
+
+        buffer.addSample(1, 0, 0, Math.PI - 0.1);
+        buffer.addSample(2, 0, 0, -Math.PI + 0.1);
+
+        Assertions.assertTrue(buffer.sample(1.5, result));
+        Assertions.assertEquals(Math.PI, result[2], EPSILON);
+    }
+
+    @Test
+    void clampsOutsideTheHistory() {
+        final PoseHistoryBuffer buffer = new PoseHistoryBuffer(10, 4);
+        final double[] result = new double[3];
+
+        Assertions.assertFalse(buffer.sample(0, result));
+
+        buffer.addSample(1, 1, 0, 0);
+        buffer.addSample(2, 2, 0, 0);
+
+        Assertions.assertTrue(buffer.sample(0, result));
+        Assertions.assertEquals(1, result[0], EPSILON);
+
+        Assertions.assertTrue(buffer.sample(3, result));
+        Assertions.assertEquals(2, result[0], EPSILON);
+    }
+
+    @Test
+    void replacesTheLatestPoseWhenTimeDoesNotAdvance() {
+        final PoseHistoryBuffer buffer = new PoseHistoryBuffer(10, 4);
+        final double[] result = new double[3];
+
+        buffer.addSample(1, 0, 0, 0);
+        buffer.addSample(2, 1, 0, 0);
+        buffer.addSample(2, 3, 0, 0);
+        buffer.addSample(1.5, 5, 0, 0);
+
+        Assertions.assertEquals(2, buffer.getLatestTimestamp());
+
+        Assertions.assertTrue(buffer.sample(2, result));
+        Assertions.assertEquals(5, result[0], EPSILON);
+
+        Assertions.assertTrue(buffer.sample(1.5, result));
+        Assertions.assertEquals(2.5, result[0], EPSILON);
+    }
+
+    @Test
+    void dropsSamplesOlderThanTheHistory() {
+        final PoseHistoryBuffer buffer = new PoseHistoryBuffer(1, 16);
+
+        for (int i = 0; i <= 10; i++)
+            buffer.addSample(0.25 * i, i, 0, 0);
+
+        Assertions.assertEquals(1.5, buffer.getOldestTimestamp());
+        Assertions.assertEquals(2.5, buffer.getLatestTimestamp());
+    }
+}